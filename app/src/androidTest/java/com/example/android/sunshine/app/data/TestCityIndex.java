@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestCityIndex extends AndroidTestCase {
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(mContext.getCacheDir(), "test.sunc");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private CityIndex writeTestIndex() throws IOException {
+        List<CityIndex.City> cities = new ArrayList<CityIndex.City>();
+        cities.add(new CityIndex.City(2988507, "Paris", "FR", 48.8534, 2.3488));
+        cities.add(new CityIndex.City(4717560, "Paris", "US", 33.6609, -95.5555));
+        cities.add(new CityIndex.City(3171457, "Parma", "IT", 44.8015, 10.3279));
+        cities.add(new CityIndex.City(3448439, "São Paulo", "BR", -23.5475, -46.6361));
+        cities.add(new CityIndex.City(2643743, "London", "GB", 51.5085, -0.1257));
+        CityIndex.write(mFile, cities);
+        return CityIndex.open(mFile);
+    }
+
+    private static String settings(List<CityIndex.City> cities) {
+        StringBuilder settings = new StringBuilder();
+        for (CityIndex.City city : cities) {
+            if (settings.length() > 0) {
+                settings.append("; ");
+            }
+            settings.append(city.toLocationSetting());
+        }
+        return settings.toString();
+    }
+
+    public void testComplete() throws IOException {
+        CityIndex index = writeTestIndex();
+        assertEquals(5, index.getCityCount());
+
+        assertEquals("Paris, FR; Paris, US; Parma, IT", settings(index.complete("par", 10)));
+        assertEquals("Paris, FR; Paris, US", settings(index.complete("PARI", 2)));
+        assertEquals("Paris, US", settings(index.complete("paris, u", 10)));
+        // accents are not needed to find a city
+        assertEquals("São Paulo, BR", settings(index.complete("sao p", 10)));
+        assertEquals("", settings(index.complete("berlin", 10)));
+
+        CityIndex.City london = index.complete("lon", 1).get(0);
+        assertEquals(2643743, london.id);
+        assertEquals(51.5085, london.coordLat, 0.0001);
+        assertEquals(-0.1257, london.coordLong, 0.0001);
+    }
+
+    public void testFind() throws IOException {
+        CityIndex index = writeTestIndex();
+        assertEquals("Paris, US", index.find("Paris, us").toLocationSetting());
+        assertEquals("São Paulo, BR", index.find("Sao  Paulo").toLocationSetting());
+        assertEquals("London, GB", index.find("London,UK").toLocationSetting());
+        // a prefix is not a city
+        assertNull(index.find("Pari"));
+        assertNull(index.find("Paris, DE"));
+        assertNull(index.find(""));
+        // nothing tells which Paris these are
+        assertNull(index.find("paris"));
+        assertNull(index.find("Paris, France"));
+    }
+
+    public void testHasName() throws IOException {
+        CityIndex index = writeTestIndex();
+        assertTrue(index.hasName("Paris, France"));
+        assertTrue(index.hasName("London,UK"));
+        assertFalse(index.hasName("Pari"));
+        assertFalse(index.hasName("Berlin, DE"));
+    }
+
+    public void testBadMagicIsRejected() throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[CityIndex.HEADER_SIZE]);
+        out.close();
+        try {
+            CityIndex.open(mFile);
+            fail("Error: a file without the magic number should be rejected");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import java.util.TimeZone;
+
+/*
+    Checks that DayIndex gives the same days and midnights as the Time based code it replaced,
+    in zones with and without daylight saving time, including across the transitions.
+ */
+public class TestDayIndex extends AndroidTestCase {
+
+    private static final String[] TEST_ZONES = {
+            "America/Los_Angeles",
+            "Europe/London",
+            "Australia/Sydney",
+            "America/St_Johns",
+            "Asia/Kolkata",
+            "UTC"
+    };
+
+    // January 1st 2015 to January 1st 2017 UTC, covers four transitions in each DST zone
+    private static final long START = 1420070400000L;
+    private static final long END = 1483228800000L;
+    // An odd step so the checked times fall on many different minutes of the day
+    private static final long STEP = 37 * 60 * 1000;
+
+    private TimeZone mDefaultZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultZone);
+        DayIndex.onTimeZoneChanged();
+        super.tearDown();
+    }
+
+    private void useZone(String id) {
+        TimeZone.setDefault(TimeZone.getTimeZone(id));
+        DayIndex.onTimeZoneChanged();
+    }
+
+    // WeatherContract.normalizeDate as it was written with Time
+    private static long timeNormalizeDate(long startDate) {
+        Time time = new Time();
+        time.set(startDate);
+        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+
+    public void testJulianDayMatchesTime() {
+        for (String zone : TEST_ZONES) {
+            useZone(zone);
+            Time time = new Time();
+            for (long millis = START; millis < END; millis += STEP) {
+                time.set(millis);
+                assertEquals("Error: Julian day differs in " + zone + " at " + millis,
+                        Time.getJulianDay(millis, time.gmtoff), DayIndex.julianDay(millis));
+            }
+        }
+    }
+
+    public void testNormalizeMatchesTime() {
+        for (String zone : TEST_ZONES) {
+            useZone(zone);
+            for (long millis = START; millis < END; millis += STEP) {
+                assertEquals("Error: normalized date differs in " + zone + " at " + millis,
+                        timeNormalizeDate(millis), DayIndex.normalize(millis));
+            }
+        }
+    }
+
+    public void testStartOfDayAcrossTransitions() {
+        for (String zone : TEST_ZONES) {
+            useZone(zone);
+            Time time = new Time();
+            int firstDay = DayIndex.julianDay(START);
+            int lastDay = DayIndex.julianDay(END);
+            for (int day = firstDay; day < lastDay; day++) {
+                long start = DayIndex.startOfDay(day);
+                assertEquals("Error: startOfDay differs from Time in " + zone + " on day " + day,
+                        time.setJulianDay(day), start);
+                assertEquals("Error: startOfDay not in its own day in " + zone,
+                        day, DayIndex.julianDay(start));
+
+                // days are 23, 24 or 25 hours long
+                long length = DayIndex.startOfDay(day + 1) - start;
+                assertTrue("Error: unexpected day length " + length + " in " + zone,
+                        length >= DayIndex.DAY_IN_MILLIS - 60 * 60 * 1000
+                                && length <= DayIndex.DAY_IN_MILLIS + 60 * 60 * 1000);
+            }
+        }
+    }
+
+    public void testTimeZoneChange() {
+        useZone("Asia/Tokyo");
+        // 20:00 UTC is already the next day in Tokyo
+        long evening = 1419105600000L;  // December 20th, 2014 20:00 UTC
+        int tokyoDay = DayIndex.julianDay(evening);
+
+        useZone("Europe/London");
+        assertEquals("Error: cached offsets not cleared on time zone change",
+                tokyoDay - 1, DayIndex.julianDay(evening));
+    }
+}
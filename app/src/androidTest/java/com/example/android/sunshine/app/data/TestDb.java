@@ -17,9 +17,11 @@ package com.example.android.sunshine.app.data;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 
+import java.io.File;
 import java.util.HashSet;
 
 public class TestDb extends AndroidTestCase {
@@ -29,6 +31,8 @@ public class TestDb extends AndroidTestCase {
     // Since we want each test to start with a clean slate
     void deleteTheDatabase() {
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        // a new database is restored from the cache export otherwise
+        new File(mContext.getFilesDir(), ForecastBundle.CACHE_FILE).delete();
     }
 
     /*
@@ -54,7 +58,8 @@ public class TestDb extends AndroidTestCase {
         // Android metadata (db version information)
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
-        tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherStorage.DATA_TABLE);
+        tableNameHashSet.add(WeatherStorage.CONDITION_TABLE);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -77,6 +82,12 @@ public class TestDb extends AndroidTestCase {
         assertTrue("Error: Your database was created without both the location entry and weather entry tables",
                 tableNameHashSet.isEmpty());
 
+        // the weather entries are read through a view
+        c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='view' AND name = ?",
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME});
+        assertTrue("Error: The database was created without the weather view", c.moveToFirst());
+        c.close();
+
         // now, do our tables contain the correct columns?
         c = db.rawQuery("PRAGMA table_info(" + WeatherContract.LocationEntry.TABLE_NAME + ")",
                 null);
@@ -145,7 +156,7 @@ public class TestDb extends AndroidTestCase {
         ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
 
         // Third Step (Weather): Insert ContentValues into database and get a row ID back
-        long weatherRowId = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+        long weatherRowId = WeatherStorage.insert(db, weatherValues);
         assertTrue(weatherRowId != -1);
 
         // Fourth Step: Query the database and receive a Cursor back
@@ -176,6 +187,45 @@ public class TestDb extends AndroidTestCase {
         dbHelper.close();
     }
 
+    public void testCompactWeatherStorage() {
+        long locationRowId = insertLocation();
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        long firstId = WeatherStorage.insert(db, weatherValues);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                TestUtilities.TEST_DATE + DayIndex.DAY_IN_MILLIS);
+        long secondId = WeatherStorage.insert(db, weatherValues);
+        assertTrue("Error: rows of different days should have different ids", firstId != secondId);
+
+        // the condition is stored once, the measures as scaled integers
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, WeatherStorage.CONDITION_TABLE));
+        Cursor c = db.query(WeatherStorage.DATA_TABLE,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_MAX_TEMP}, null, null,
+                null, null, null);
+        assertTrue(c.moveToFirst());
+        assertEquals(Cursor.FIELD_TYPE_INTEGER, c.getType(0));
+        assertEquals(75 * WeatherStorage.SCALE, c.getLong(0));
+        c.close();
+
+        // updates and deletes select on the columns of the view
+        ContentValues update = new ContentValues();
+        update.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, -3.25);
+        assertEquals(1, WeatherStorage.update(db, update,
+                WeatherContract.WeatherEntry._ID + " = ?", new String[]{Long.toString(secondId)}));
+        c = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_MIN_TEMP},
+                WeatherContract.WeatherEntry._ID + " = ?", new String[]{Long.toString(secondId)},
+                null, null, null);
+        assertTrue(c.moveToFirst());
+        assertEquals(-3.25, c.getDouble(0));
+        c.close();
+
+        assertEquals(1, WeatherStorage.delete(db, WeatherContract.WeatherEntry.COLUMN_DATE
+                + " <= ?", new String[]{Long.toString(TestUtilities.TEST_DATE)}));
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, WeatherContract.WeatherEntry.TABLE_NAME));
+        db.close();
+    }
 
     /*
         Students: This is a helper method for the testWeatherTable quiz. You can move your
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class TestForecastBundle extends AndroidTestCase {
+
+    private static final int DAYS = 14;
+    private File mFile;
+    private File mCacheFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(mContext.getCacheDir(), "test.sunf");
+        mCacheFile = new File(mContext.getFilesDir(), ForecastBundle.CACHE_FILE);
+        mCacheFile.delete();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        mCacheFile.delete();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private static long testDate(int day) {
+        return DayIndex.startOfDay(DayIndex.julianDay(TestUtilities.TEST_DATE) + day);
+    }
+
+    private void writeTestBundle() throws IOException {
+        MatrixCursor locations = new MatrixCursor(ForecastBundle.LOCATION_COLUMNS);
+        locations.addRow(new Object[]{7L, TestUtilities.TEST_LOCATION, "North Pole",
+                64.7488, -147.353});
+        // longer than its field, and cut in the middle of a multi-byte character
+        locations.addRow(new Object[]{8L, "10001", "Llanfairpwllgwyngyllgogerychwyrndrobwllllantysiliogogogoch é",
+                51.2, -4.2});
+        // settings longer than the old 16 bytes field
+        locations.addRow(new Object[]{9L, "San Francisco, US", "San Francisco", 37.7749, -122.4194});
+        locations.addRow(new Object[]{10L, "-33.868820,151.209296", "Sydney", -33.8688, 151.2093});
+        // too long for its field, left out with its days
+        char[] longSetting = new char[ForecastBundle.SETTING_WIDTH + 1];
+        Arrays.fill(longSetting, 'x');
+        locations.addRow(new Object[]{11L, new String(longSetting), "Nowhere", 0.0, 0.0});
+
+        MatrixCursor days = new MatrixCursor(ForecastBundle.DAY_COLUMNS);
+        for (int i = 0; i < DAYS; i++) {
+            days.addRow(new Object[]{7L, testDate(i), 800 + i, 65.5f - i, 75.25f + i, 1.2f, 1.3f,
+                    5.5f, 1.1f, "Clear"});
+        }
+        // a day of a location that is not in the bundle is left out
+        days.addRow(new Object[]{99L, testDate(0), 800, 0f, 0f, 0f, 0f, 0f, 0f, "Clear"});
+        days.addRow(new Object[]{11L, testDate(0), 800, 0f, 0f, 0f, 0f, 0f, 0f, "Clear"});
+
+        ForecastBundle.write(mFile, locations, days);
+        locations.close();
+        days.close();
+    }
+
+    public void testWriteAndMap() throws IOException {
+        writeTestBundle();
+        ForecastBundle bundle = ForecastBundle.open(mFile);
+
+        assertEquals("Error: a setting too long for its field should be left out",
+                4, bundle.getLocationCount());
+        assertEquals(0, bundle.findLocation(TestUtilities.TEST_LOCATION));
+        assertEquals(2, bundle.findLocation("San Francisco, US"));
+        assertEquals(3, bundle.findLocation("-33.868820,151.209296"));
+        assertEquals(-1, bundle.findLocation("San Francisco, U"));
+        assertEquals("North Pole", bundle.getCityName(0));
+        assertEquals(64.7488, bundle.getCoordLat(0));
+        assertEquals(-147.353, bundle.getCoordLong(0));
+        assertTrue("Error: long city name should be cut to its field",
+                bundle.getCityName(1).startsWith("Llanfairpwll"));
+        assertFalse("Error: cut name should not end with a broken character",
+                bundle.getCityName(1).endsWith("�"));
+
+        assertEquals("Error: unknown location day should be left out", DAYS, bundle.getDayCount());
+        for (int i = 0; i < DAYS; i++) {
+            assertEquals(0, bundle.getDayLocation(i));
+            assertEquals(testDate(i), bundle.getDate(i));
+            assertEquals(800 + i, bundle.getWeatherId(i));
+            assertEquals(65.5f - i, bundle.getMinTemp(i));
+            assertEquals(75.25f + i, bundle.getMaxTemp(i));
+            assertEquals("Clear", bundle.getShortDesc(i));
+        }
+    }
+
+    public void testImportInto() throws IOException {
+        writeTestBundle();
+        ForecastBundle bundle = ForecastBundle.open(mFile);
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+
+        assertEquals(DAYS, bundle.importInto(db));
+        // importing twice replaces the same days
+        assertEquals(DAYS, bundle.importInto(db));
+
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: days were duplicated by the second import", DAYS, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(testDate(0), cursor.getLong(
+                cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE)));
+        cursor.close();
+
+        cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME, null,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{"-33.868820,151.209296"}, null, null, null);
+        assertEquals("Error: a setting should be imported whole", 1, cursor.getCount());
+        cursor.close();
+
+        cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME, null, null, null,
+                null, null, null);
+        assertEquals(4, cursor.getCount());
+        cursor.close();
+        db.close();
+    }
+
+    public void testNewDatabaseIsRestoredFromTheCache() throws IOException {
+        writeTestBundle();
+        assertTrue(mFile.renameTo(mCacheFile));
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null,
+                null, null, null);
+        assertEquals("Error: the days exported by the last sync were not restored",
+                DAYS, cursor.getCount());
+        cursor.close();
+        db.close();
+    }
+
+    public void testRejectsOtherFiles() throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[64]);
+        out.close();
+        try {
+            ForecastBundle.open(mFile);
+            fail("Error: a file without the magic number was opened");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+
+public class TestForecastCursor extends AndroidTestCase {
+
+    private static final String[] COLUMNS = {
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static MatrixCursor createSource() {
+        MatrixCursor source = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < 14; i++) {
+            source.addRow(new Object[]{
+                    (long) i + 1,
+                    TestUtilities.TEST_DATE + i * DayIndex.DAY_IN_MILLIS,
+                    "Asteroids " + i,
+                    75.5 + i,
+                    65.25 - i,
+                    TestUtilities.TEST_LOCATION,
+                    321 + i,
+                    64.7488,
+                    -147.353
+            });
+        }
+        return source;
+    }
+
+    public void testCopyMatchesSource() {
+        MatrixCursor source = createSource();
+        ForecastCursor copy = ForecastCursor.copyOf(source);
+        assertNotNull("Error: forecast columns were not copied", copy);
+        assertEquals(source.getCount(), copy.getCount());
+        assertEquals(0, copy.getColumnIndexOrThrow(WeatherContract.WeatherEntry._ID));
+
+        source.moveToPosition(-1);
+        while (source.moveToNext()) {
+            assertTrue(copy.moveToNext());
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (copy.getType(i) == Cursor.FIELD_TYPE_STRING) {
+                    assertEquals(source.getString(i), copy.getString(i));
+                    continue;
+                }
+                assertEquals("Error: column " + COLUMNS[i] + " differs",
+                        source.getDouble(i), copy.getDouble(i));
+            }
+            assertEquals(source.getLong(1), copy.getLong(1));
+            assertEquals(source.getInt(6), copy.getInt(6));
+            assertEquals(source.getString(7), copy.getString(7));
+            assertEquals(Cursor.FIELD_TYPE_FLOAT, copy.getType(3));
+        }
+        assertFalse(copy.moveToNext());
+        copy.close();
+        source.close();
+    }
+
+    public void testUnknownColumnIsNotCopied() {
+        MatrixCursor source = new MatrixCursor(new String[]{"unknown"});
+        source.addRow(new Object[]{1});
+        assertNull("Error: unknown columns should keep the source cursor",
+                ForecastCursor.copyOf(source));
+        source.close();
+    }
+}
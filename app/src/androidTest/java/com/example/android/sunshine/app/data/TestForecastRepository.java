@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestForecastRepository extends AndroidTestCase {
+
+    private static final int DAYS = 5;
+
+    private ForecastRepository mRepository;
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private long mLocationRowId;
+    private long mToday;
+
+    /**
+     * Records the forecasts it is handed.
+     */
+    private static class RecordingObserver implements ForecastRepository.ForecastObserver {
+        final List<ForecastRepository.Forecast> mForecasts =
+                Collections.synchronizedList(new ArrayList<ForecastRepository.Forecast>());
+
+        @Override
+        public void onForecastChanged(ForecastRepository.Forecast forecast) {
+            mForecasts.add(forecast);
+        }
+
+        void waitForDeliveries(final int count) {
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return mForecasts.size() >= count;
+                }
+            }.run();
+        }
+
+        ForecastRepository.Forecast last() {
+            return mForecasts.get(mForecasts.size() - 1);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mLocationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+        insertForecast(75);
+
+        mRepository = ForecastRepository.getInstance(mContext);
+        // each test starts without a stream, and leaves none behind
+        mRepository.mLingerMillis = 0;
+        mThread = new HandlerThread("ForecastRepositoryTest");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return !mRepository.hasStream(TestUtilities.TEST_LOCATION);
+            }
+        }.run();
+        mRepository.mLingerMillis = ForecastRepository.LINGER_MILLIS;
+        mThread.quit();
+        super.tearDown();
+    }
+
+    // Writes the forecast from today on, the last day with the given high
+    private void insertForecast(double lastMaxTemp) {
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(mLocationRowId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, mToday + i * DayIndex.DAY_IN_MILLIS);
+            if (i == DAYS - 1) {
+                weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, lastMaxTemp);
+            }
+            values[i] = weatherValues;
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    // Waits until the stream read every change, then until what it handed out was delivered
+    private void waitUntilSettled() throws InterruptedException {
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return mRepository.isSettled(TestUtilities.TEST_LOCATION);
+            }
+        }.run();
+        // deliveries are posted before the stream settles, so they run before this
+        final CountDownLatch delivered = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                delivered.countDown();
+            }
+        });
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+    }
+
+    public void testSubscribersShareOneRead() {
+        int reads = mRepository.getReadCount();
+        RecordingObserver first = new RecordingObserver();
+        RecordingObserver second = new RecordingObserver();
+        ForecastRepository.Subscription firstSubscription =
+                mRepository.subscribe(TestUtilities.TEST_LOCATION, first, mHandler);
+        ForecastRepository.Subscription secondSubscription =
+                mRepository.subscribe(TestUtilities.TEST_LOCATION, second, mHandler);
+        first.waitForDeliveries(1);
+        second.waitForDeliveries(1);
+
+        assertEquals("Error: the subscribers of a location should share its read",
+                reads + 1, mRepository.getReadCount());
+        assertSame(first.last(), second.last());
+        ForecastRepository.Forecast forecast = first.last();
+        assertEquals(DAYS, forecast.size());
+        assertEquals(64.7488, forecast.coordLat, 0.0001);
+        assertEquals(mToday, forecast.get(0).date);
+        assertSame(forecast.get(1),
+                forecast.getDay(mToday + DayIndex.DAY_IN_MILLIS + 60 * 60 * 1000));
+        assertNull(forecast.getDay(mToday + DAYS * DayIndex.DAY_IN_MILLIS));
+
+        firstSubscription.unsubscribe();
+        secondSubscription.unsubscribe();
+    }
+
+    public void testBurstOfWritesIsFolded() throws InterruptedException {
+        RecordingObserver observer = new RecordingObserver();
+        ForecastRepository.Subscription subscription =
+                mRepository.subscribe(TestUtilities.TEST_LOCATION, observer, mHandler);
+        observer.waitForDeliveries(1);
+        int reads = mRepository.getReadCount();
+
+        // a burst of writes, as a sync makes them
+        insertForecast(80);
+        insertForecast(85);
+        insertForecast(90);
+        waitUntilSettled();
+        assertEquals(90.0, observer.last().get(DAYS - 1).maxTemp, 0.0001);
+        assertTrue("Error: a burst of writes should be folded into fewer reads",
+                mRepository.getReadCount() - reads < 3);
+
+        // writing the same forecast again hands nothing new
+        int readsBefore = mRepository.getReadCount();
+        int deliveries = observer.mForecasts.size();
+        insertForecast(90);
+        waitUntilSettled();
+        assertTrue(mRepository.getReadCount() > readsBefore);
+        assertEquals("Error: an unchanged forecast should not be handed again",
+                deliveries, observer.mForecasts.size());
+
+        subscription.unsubscribe();
+    }
+
+    public void testDaySubscriberSeesOnlyItsDay() throws InterruptedException {
+        final List<ForecastRepository.Day> days =
+                Collections.synchronizedList(new ArrayList<ForecastRepository.Day>());
+        RecordingObserver observer = new RecordingObserver();
+        ForecastRepository.Subscription forecastSubscription =
+                mRepository.subscribe(TestUtilities.TEST_LOCATION, observer, mHandler);
+        ForecastRepository.Subscription daySubscription = mRepository.subscribe(
+                TestUtilities.TEST_LOCATION, mToday, new ForecastRepository.DayObserver() {
+                    @Override
+                    public void onDayChanged(ForecastRepository.Day day) {
+                        days.add(day);
+                    }
+                }, mHandler);
+        observer.waitForDeliveries(1);
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return days.size() == 1;
+            }
+        }.run();
+        assertEquals(mToday, days.get(0).date);
+
+        // only the last day changes
+        insertForecast(99);
+        observer.waitForDeliveries(2);
+        waitUntilSettled();
+        assertEquals("Error: a day subscriber should not hear of other days", 1, days.size());
+
+        forecastSubscription.unsubscribe();
+        daySubscription.unsubscribe();
+    }
+
+    public void testGetForecastSharesTheStream() {
+        RecordingObserver observer = new RecordingObserver();
+        ForecastRepository.Subscription subscription =
+                mRepository.subscribe(TestUtilities.TEST_LOCATION, observer, mHandler);
+        observer.waitForDeliveries(1);
+        int reads = mRepository.getReadCount();
+
+        assertSame("Error: a current stream should be served without a read",
+                observer.last(), mRepository.getForecast(TestUtilities.TEST_LOCATION));
+        assertEquals(reads, mRepository.getReadCount());
+
+        // a write is seen by the next caller, whatever the wait before the stream reads it
+        insertForecast(60);
+        ForecastRepository.Forecast forecast =
+                mRepository.getForecast(TestUtilities.TEST_LOCATION);
+        assertEquals(60, forecast.get(DAYS - 1).maxTemp, 0.001);
+        assertEquals(reads + 1, mRepository.getReadCount());
+
+        subscription.unsubscribe();
+    }
+
+    public void testWindowReadsOnlyTheNextPage() {
+        final RecordingObserver observer = new RecordingObserver();
+        ForecastRepository.Window window =
+                mRepository.subscribe(TestUtilities.TEST_LOCATION, 2, observer, mHandler);
+        observer.waitForDeliveries(1);
+        ForecastRepository.Forecast firstPage = observer.last();
+        assertEquals("Error: the window should only hold the days asked for",
+                2, firstPage.size());
+        assertTrue(firstPage.hasMore());
+        int reads = mRepository.getReadCount();
+
+        window.setRows(4);
+        observer.waitForDeliveries(2);
+        ForecastRepository.Forecast twoPages = observer.last();
+        assertEquals(4, twoPages.size());
+        assertTrue(twoPages.hasMore());
+        assertSame("Error: the days already read should be kept",
+                firstPage.get(1), twoPages.get(1));
+        assertEquals(mToday + 3 * DayIndex.DAY_IN_MILLIS, twoPages.get(3).date);
+        assertEquals(reads + 1, mRepository.getReadCount());
+
+        // the last page is short, the forecast then ends
+        window.setRows(8);
+        observer.waitForDeliveries(3);
+        assertEquals(DAYS, observer.last().size());
+        assertFalse(observer.last().hasMore());
+
+        window.unsubscribe();
+    }
+
+    public void testStreamReleasedWithoutSubscribers() {
+        RecordingObserver observer = new RecordingObserver();
+        ForecastRepository.Subscription subscription =
+                mRepository.subscribe(TestUtilities.TEST_LOCATION, observer, mHandler);
+        observer.waitForDeliveries(1);
+        assertTrue(mRepository.hasStream(TestUtilities.TEST_LOCATION));
+
+        subscription.unsubscribe();
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return !mRepository.hasStream(TestUtilities.TEST_LOCATION);
+            }
+        }.run();
+
+        // nothing is handed once unsubscribed
+        insertForecast(50);
+        assertNotNull(mRepository.getForecast(TestUtilities.TEST_LOCATION));
+        assertEquals(1, observer.mForecasts.size());
+    }
+}
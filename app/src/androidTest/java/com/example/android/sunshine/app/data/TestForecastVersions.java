@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.AccuracyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.DriftEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestForecastVersions extends AndroidTestCase {
+
+    private SQLiteDatabase mDb;
+    private long mLocationId;
+    private int mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        mLocationId = mDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        mToday = DayIndex.julianDay(System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private void insertForecast(int julianDay, int weatherId, double min, double max) {
+        ContentValues values = TestUtilities.createWeatherValues(mLocationId);
+        values.put(WeatherEntry.COLUMN_DATE, DayIndex.startOfDay(julianDay));
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, min);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, max);
+        assertTrue(WeatherStorage.insert(mDb, values) != -1);
+    }
+
+    private long countVersions() {
+        return DatabaseUtils.queryNumEntries(mDb, ForecastVersions.VERSION_TABLE);
+    }
+
+    public void testVersionsAreDeltas() {
+        int day = mToday + 3;
+        insertForecast(day, 800, 10, 20);
+        // the same forecast again is not a new version
+        insertForecast(day, 800, 10, 20);
+        assertEquals(1, countVersions());
+
+        insertForecast(day, 800, 10, 18.5);
+        insertForecast(day, 500, 12, 18.5);
+        assertEquals(3, countVersions());
+
+        // only what moved is stored
+        Cursor stored = mDb.query(ForecastVersions.VERSION_TABLE, null, null, null, null, null,
+                DriftEntry._ID + " ASC");
+        assertTrue(stored.moveToPosition(1));
+        assertTrue(stored.isNull(stored.getColumnIndex(DriftEntry.COLUMN_WEATHER_ID)));
+        assertTrue(stored.isNull(stored.getColumnIndex(DriftEntry.COLUMN_MIN_TEMP)));
+        assertEquals(-150, stored.getLong(stored.getColumnIndex(DriftEntry.COLUMN_MAX_TEMP)));
+        stored.close();
+
+        Cursor drift = mDb.query(DriftEntry.TABLE_NAME, null,
+                DriftEntry.COLUMN_LOC_KEY + " = ? AND " + DriftEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(mLocationId), Long.toString(DayIndex.startOfDay(day))},
+                null, null, DriftEntry._ID + " ASC");
+        assertEquals(3, drift.getCount());
+        int weatherId = drift.getColumnIndex(DriftEntry.COLUMN_WEATHER_ID);
+        int min = drift.getColumnIndex(DriftEntry.COLUMN_MIN_TEMP);
+        int max = drift.getColumnIndex(DriftEntry.COLUMN_MAX_TEMP);
+
+        assertTrue(drift.moveToNext());
+        assertEquals(3, drift.getInt(drift.getColumnIndex(DriftEntry.COLUMN_LEAD_DAYS)));
+        assertEquals(800, drift.getInt(weatherId));
+        assertEquals(10.0, drift.getDouble(min), 0.001);
+        assertEquals(20.0, drift.getDouble(max), 0.001);
+
+        assertTrue(drift.moveToNext());
+        assertEquals(800, drift.getInt(weatherId));
+        assertEquals(10.0, drift.getDouble(min), 0.001);
+        assertEquals(18.5, drift.getDouble(max), 0.001);
+
+        assertTrue(drift.moveToNext());
+        assertEquals(500, drift.getInt(weatherId));
+        assertEquals(12.0, drift.getDouble(min), 0.001);
+        assertEquals(18.5, drift.getDouble(max), 0.001);
+        drift.close();
+    }
+
+    public void testUpdateRecordsAVersion() {
+        int day = mToday + 2;
+        insertForecast(day, 800, 10, 20);
+
+        // a pushed delta only carries the values that changed
+        ContentValues delta = new ContentValues();
+        delta.put(WeatherEntry.COLUMN_MAX_TEMP, 17.5);
+        assertEquals(1, WeatherStorage.update(mDb, delta,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(mLocationId), Long.toString(DayIndex.startOfDay(day))}));
+        assertEquals("Error: an update should record a version", 2, countVersions());
+
+        Cursor drift = mDb.query(DriftEntry.TABLE_NAME, null, null, null, null, null,
+                DriftEntry._ID + " DESC");
+        assertTrue(drift.moveToFirst());
+        assertEquals(800, drift.getInt(drift.getColumnIndex(DriftEntry.COLUMN_WEATHER_ID)));
+        assertEquals(10.0, drift.getDouble(drift.getColumnIndex(DriftEntry.COLUMN_MIN_TEMP)), 0.001);
+        assertEquals(17.5, drift.getDouble(drift.getColumnIndex(DriftEntry.COLUMN_MAX_TEMP)), 0.001);
+        drift.close();
+
+        // the same delta again moves nothing
+        WeatherStorage.update(mDb, delta, null, null);
+        assertEquals(2, countVersions());
+    }
+
+    public void testIssueTimeIsKept() {
+        int day = mToday + 3;
+        long issued = DayIndex.startOfDay(mToday - 1) + 12 * 60 * 60 * 1000;
+        ContentValues values = TestUtilities.createWeatherValues(mLocationId);
+        values.put(WeatherEntry.COLUMN_DATE, DayIndex.startOfDay(day));
+        assertTrue(WeatherStorage.insert(mDb, values, issued) != -1);
+
+        Cursor drift = mDb.query(DriftEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertTrue(drift.moveToFirst());
+        assertEquals(issued, drift.getLong(drift.getColumnIndex(DriftEntry.COLUMN_ISSUED)));
+        assertEquals("Error: the lead should count from the issue time, not the import",
+                4, drift.getInt(drift.getColumnIndex(DriftEntry.COLUMN_LEAD_DAYS)));
+        drift.close();
+    }
+
+    public void testNewBaseAfterDelete() {
+        int day = mToday + 1;
+        insertForecast(day, 800, 10, 20);
+        WeatherStorage.delete(mDb, null, null);
+        // the day is stored again from scratch, its versions add up from the new base
+        insertForecast(day, 500, 5, 8);
+
+        Cursor drift = mDb.query(DriftEntry.TABLE_NAME, null, null, null, null, null,
+                DriftEntry._ID + " DESC");
+        assertTrue(drift.moveToFirst());
+        assertEquals(500, drift.getInt(drift.getColumnIndex(DriftEntry.COLUMN_WEATHER_ID)));
+        assertEquals(5.0, drift.getDouble(drift.getColumnIndex(DriftEntry.COLUMN_MIN_TEMP)), 0.001);
+        assertEquals(8.0, drift.getDouble(drift.getColumnIndex(DriftEntry.COLUMN_MAX_TEMP)), 0.001);
+        drift.close();
+    }
+
+    public void testAccuracyOfArchivedDays() {
+        int day = mToday + 2;
+        insertForecast(day, 800, 10, 20);
+        insertForecast(day, 500, 12, 18);
+        // not comparable until the day is in the history
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDb, AccuracyEntry.TABLE_NAME));
+
+        WeatherArchive.archive(mDb, WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(DayIndex.startOfDay(day))}, 0);
+
+        Cursor accuracy = mDb.query(AccuracyEntry.TABLE_NAME, null,
+                AccuracyEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(mLocationId)},
+                null, null, null);
+        assertTrue(accuracy.moveToFirst());
+        assertEquals(1, accuracy.getCount());
+        assertEquals(2, accuracy.getInt(accuracy.getColumnIndex(AccuracyEntry.COLUMN_LEAD_DAYS)));
+        assertEquals(2, accuracy.getInt(accuracy.getColumnIndex(AccuracyEntry.COLUMN_VERSIONS)));
+        // the first version was 2 degrees off on each, the second is the final forecast
+        assertEquals(1.0, accuracy.getDouble(
+                accuracy.getColumnIndex(AccuracyEntry.COLUMN_MAX_TEMP_ERROR)), 0.001);
+        assertEquals(1.0, accuracy.getDouble(
+                accuracy.getColumnIndex(AccuracyEntry.COLUMN_MIN_TEMP_ERROR)), 0.001);
+        assertEquals(0.5, accuracy.getDouble(
+                accuracy.getColumnIndex(AccuracyEntry.COLUMN_CONDITION_HITS)), 0.001);
+        accuracy.close();
+
+        // the versions go with the history past the retention
+        WeatherArchive.archive(mDb, WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{"0"}, DayIndex.startOfDay(day + 1));
+        assertEquals(0, countVersions());
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+
+public class TestLastForecastCache extends AndroidTestCase {
+
+    private static final String[] COLUMNS = {
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    private static final String[] CURSOR_COLUMNS = {
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        LastForecastCache.clear(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        LastForecastCache.clear(mContext);
+        super.tearDown();
+    }
+
+    private void writeForecast(int days) {
+        MatrixCursor source = new MatrixCursor(CURSOR_COLUMNS);
+        for (int i = 0; i < days; i++) {
+            source.addRow(new Object[]{
+                    (long) i + 1,
+                    TestUtilities.TEST_DATE + i * DayIndex.DAY_IN_MILLIS,
+                    "Asteroids",
+                    75.5 + i,
+                    (long) 321
+            });
+        }
+        LastForecastCache.Snapshot snapshot =
+                LastForecastCache.snapshot(TestUtilities.TEST_LOCATION, source);
+        source.close();
+        LastForecastCache.write(mContext, snapshot);
+    }
+
+    public void testRoundTrip() {
+        writeForecast(3);
+        Cursor cursor = LastForecastCache.read(mContext, TestUtilities.TEST_LOCATION, COLUMNS, 0);
+        assertNotNull("Error: the last forecast was not read back", cursor);
+        assertEquals(3, cursor.getCount());
+        assertTrue(cursor.moveToPosition(2));
+        assertEquals(3, cursor.getLong(0));
+        assertEquals(TestUtilities.TEST_DATE + 2 * DayIndex.DAY_IN_MILLIS, cursor.getLong(1));
+        assertEquals("Asteroids", cursor.getString(2));
+        assertEquals(77.5, cursor.getDouble(3));
+        assertEquals(321, cursor.getInt(4));
+        cursor.close();
+    }
+
+    public void testOtherLocationOrColumnsIgnored() {
+        writeForecast(3);
+        assertNull("Error: the last forecast was used for another location",
+                LastForecastCache.read(mContext, "10001", COLUMNS, 0));
+        String[] fewerColumns = {WeatherContract.WeatherEntry.COLUMN_DATE};
+        assertNull("Error: the last forecast was used for other columns",
+                LastForecastCache.read(mContext, TestUtilities.TEST_LOCATION, fewerColumns, 0));
+    }
+
+    public void testPastDaysDropped() {
+        writeForecast(3);
+        Cursor cursor = LastForecastCache.read(mContext, TestUtilities.TEST_LOCATION, COLUMNS,
+                TestUtilities.TEST_DATE + DayIndex.DAY_IN_MILLIS);
+        assertNotNull(cursor);
+        assertEquals("Error: past days should not be shown", 2, cursor.getCount());
+        cursor.close();
+
+        assertNull("Error: a forecast entirely in the past should not be shown",
+                LastForecastCache.read(mContext, TestUtilities.TEST_LOCATION, COLUMNS,
+                        TestUtilities.TEST_DATE + 3 * DayIndex.DAY_IN_MILLIS));
+    }
+
+    public void testConcurrentWritesLeaveAWholeFile() throws InterruptedException {
+        Thread[] writers = new Thread[4];
+        for (int i = 0; i < writers.length; i++) {
+            final int days = i + 1;
+            writers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 20; j++) {
+                        writeForecast(days);
+                    }
+                }
+            });
+            writers[i].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        Cursor cursor = LastForecastCache.read(mContext, TestUtilities.TEST_LOCATION, COLUMNS, 0);
+        assertNotNull("Error: concurrent writes should leave one of the forecasts", cursor);
+        assertTrue(cursor.getCount() >= 1 && cursor.getCount() <= writers.length);
+        cursor.close();
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestLocationRegistry extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private long insertLocation(ContentValues values) {
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    private int countLocations() {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testInsertIsUpsert() {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        long id = insertLocation(values);
+        assertEquals("Error: same location should keep its row", id, insertLocation(values));
+        assertEquals(1, countLocations());
+
+        values.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Village");
+        assertEquals("Error: changed location should keep its row", id, insertLocation(values));
+        assertEquals(1, countLocations());
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        TestUtilities.validateCursor("Error: location was not updated", cursor, values);
+    }
+
+    public void testLookupFollowsProviderWrites() {
+        long id = insertLocation(TestUtilities.createNorthPoleLocationValues());
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        LocationRegistry registry = LocationRegistry.getInstance();
+
+        LocationRegistry.Entry entry = registry.getBySetting(db, TestUtilities.TEST_LOCATION);
+        assertNotNull(entry);
+        assertEquals(id, entry.id);
+        assertSame(entry, registry.getById(db, id));
+        assertEquals("North Pole", entry.cityName);
+
+        ContentValues updated = new ContentValues();
+        updated.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Village");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, updated,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(id)});
+        assertEquals("Santa's Village", registry.getBySetting(db, TestUtilities.TEST_LOCATION).cityName);
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        assertNull(registry.getBySetting(db, TestUtilities.TEST_LOCATION));
+        db.close();
+    }
+
+    public void testMissIsRememberedUntilALocationIsWritten() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        LocationRegistry registry = LocationRegistry.getInstance();
+        assertNull(registry.getBySetting(db, "0,0"));
+
+        // written behind the provider's back, the miss is not read again
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, "0,0");
+        values.put(LocationEntry.COLUMN_CITY_NAME, "Null Island");
+        values.put(LocationEntry.COLUMN_COORD_LAT, 0.0);
+        values.put(LocationEntry.COLUMN_COORD_LONG, 0.0);
+        long id = db.insert(LocationEntry.TABLE_NAME, null, values);
+        assertNull("Error: a setting that missed should not be read again",
+                registry.getBySetting(db, "0,0"));
+
+        insertLocation(TestUtilities.createNorthPoleLocationValues());
+        LocationRegistry.Entry entry = registry.getBySetting(db, "0,0");
+        assertNotNull("Error: a write through the provider should forget the misses", entry);
+        assertEquals(id, entry.id);
+        db.close();
+    }
+
+    public void testLocationColumnsAreFilledIn() {
+        LocationRegistry.Entry entry = new LocationRegistry.Entry(7, "O'Fallon", "O'Fallon", 1.5, -2.5);
+        String[] columns = WeatherProvider.withLocationColumns(new String[]{
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                WeatherEntry.COLUMN_DATE,
+                LocationEntry.COLUMN_LOCATION_SETTING,
+                LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_CITY_NAME,
+                LocationEntry.COLUMN_COORD_LAT,
+                LocationEntry.TABLE_NAME + "." + LocationEntry._ID
+        }, entry);
+
+        assertEquals("weather._id", columns[0]);
+        assertEquals("date", columns[1]);
+        assertEquals("'O''Fallon' AS location_setting", columns[2]);
+        assertEquals("'O''Fallon' AS city_name", columns[3]);
+        assertEquals("1.5 AS coord_lat", columns[4]);
+        assertEquals("location_id AS _id", columns[5]);
+    }
+
+    public void testNearestLocation() {
+        long id = insertLocation(TestUtilities.createNorthPoleLocationValues());
+        ContentValues paris = new ContentValues();
+        paris.put(LocationEntry.COLUMN_LOCATION_SETTING, "Paris, FR");
+        paris.put(LocationEntry.COLUMN_CITY_NAME, "Paris");
+        paris.put(LocationEntry.COLUMN_COORD_LAT, 48.8566);
+        paris.put(LocationEntry.COLUMN_COORD_LONG, 2.3522);
+        long parisId = insertLocation(paris);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        LocationRegistry registry = LocationRegistry.getInstance();
+        assertEquals(id, registry.getNearest(db, 64.75, -147.3, 10).id);
+        assertEquals(parisId, registry.getNearest(db, 48.85, 2.35, 10).id);
+        // Versailles is 17km from Paris
+        assertNull(registry.getNearest(db, 48.8049, 2.1204, 10));
+        assertEquals(parisId, registry.getNearest(db, 48.8049, 2.1204, 20).id);
+        db.close();
+    }
+
+    public void testCoordinatesServeNearbyForecast() {
+        long id = insertLocation(TestUtilities.createNorthPoleLocationValues());
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(id));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation("64.75,-147.3"), null, null, null, null);
+        assertEquals("Error: the forecast of the location nearby should be served", 1,
+                cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation("0,0"), null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testParseCoordinates() {
+        double[] coordinates = LocationRegistry.parseCoordinates("48.85, 2.35");
+        assertEquals(48.85, coordinates[0], 0.0001);
+        assertEquals(2.35, coordinates[1], 0.0001);
+        assertNull(LocationRegistry.parseCoordinates("Paris, FR"));
+        assertNull(LocationRegistry.parseCoordinates("94043"));
+        assertNull(LocationRegistry.parseCoordinates("95,10"));
+    }
+}
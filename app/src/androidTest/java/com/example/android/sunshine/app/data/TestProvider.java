@@ -16,8 +16,11 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
@@ -25,11 +28,14 @@ import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
 import android.test.AndroidTestCase;
+import android.os.RemoteException;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -179,7 +185,7 @@ public class TestProvider extends AndroidTestCase {
         // Fantastic.  Now that we have a location, add some weather!
         ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
 
-        long weatherRowId = db.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
+        long weatherRowId = WeatherStorage.insert(db, weatherValues);
         assertTrue("Unable to Insert WeatherEntry into the Database", weatherRowId != -1);
 
         db.close();
@@ -512,4 +518,111 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    public void testApplyBatch() throws RemoteException, OperationApplicationException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        // the weather rows take the id of the location inserted by the first operation
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(-1);
+        for (ContentValues values : weatherValues) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .withYieldAllowed(true)
+                    .build());
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(operations.size(), results.length);
+        long locationRowId = ContentUris.parseId(results[0].uri);
+        assertTrue(locationRowId > 0);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            weatherValues[i].put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
+            TestUtilities.validateCurrentRecord("testApplyBatch.  Error validating WeatherEntry " + i,
+                    cursor, weatherValues[i]);
+        }
+        cursor.close();
+    }
+
+    public void testFailedBatchIsRolledBack() throws RemoteException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        // the provider does not insert into a location's weather uri
+        operations.add(ContentProviderOperation.newInsert(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION))
+                .withValues(TestUtilities.createWeatherValues(1))
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: the batch should have failed");
+        } catch (OperationApplicationException | UnsupportedOperationException expected) {
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: the location of a failed batch should be rolled back",
+                0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testKeysetPages() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+        Uri locationUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        int pageSize = 4;
+        Cursor page = mContext.getContentResolver().query(
+                WeatherEntry.buildFirstPage(locationUri, pageSize), null, null, null, null);
+        int read = 0;
+        while (page.getCount() > 0) {
+            assertTrue("Error: page larger than its limit", page.getCount() <= pageSize);
+            long lastDate = 0;
+            while (page.moveToNext()) {
+                TestUtilities.validateCurrentRecord("Error: page out of order", page, values[read++]);
+                lastDate = page.getLong(page.getColumnIndex(WeatherEntry.COLUMN_DATE));
+            }
+            page.close();
+            page = mContext.getContentResolver().query(
+                    WeatherEntry.buildPage(locationUri, lastDate, pageSize), null, null, null, null);
+        }
+        page.close();
+        assertEquals("Error: pages did not cover every row", BULK_INSERT_RECORDS_TO_INSERT, read);
+
+        // across locations the key is the date and the location
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "99706");
+        long otherRowId = ContentUris.parseId(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, otherLocation));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(otherRowId));
+        long firstLocation = Math.min(locationRowId, otherRowId);
+        page = mContext.getContentResolver().query(
+                WeatherEntry.buildPage(TestUtilities.TEST_DATE, firstLocation, 3),
+                null, null, null, null);
+        assertEquals(3, page.getCount());
+        assertTrue(page.moveToFirst());
+        assertEquals("Error: the second location of the first day should follow the key",
+                TestUtilities.TEST_DATE, page.getLong(page.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        assertEquals(Math.max(locationRowId, otherRowId),
+                page.getLong(page.getColumnIndex(WeatherEntry.COLUMN_LOC_KEY)));
+        page.close();
+    }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.AggregateEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestWeatherArchive extends AndroidTestCase {
+
+    // Monday, June 1st 2015
+    private static final int JUNE_1_2015 = 2457175;
+
+    private SQLiteDatabase mDb;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        mLocationId = mDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private void insertDay(int julianDay, int weatherId, double min, double max) {
+        ContentValues values = TestUtilities.createWeatherValues(mLocationId);
+        values.put(WeatherEntry.COLUMN_DATE, DayIndex.startOfDay(julianDay));
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, min);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, max);
+        assertTrue(WeatherStorage.insert(mDb, values) != -1);
+    }
+
+    private int archiveBefore(int julianDay, int keepFromJulianDay) {
+        return WeatherArchive.archive(mDb, WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(DayIndex.startOfDay(julianDay))},
+                keepFromJulianDay == 0 ? 0 : DayIndex.startOfDay(keepFromJulianDay));
+    }
+
+    private Cursor queryAggregate(int period, int julianStart) {
+        Cursor cursor = mDb.query(AggregateEntry.TABLE_NAME, null,
+                AggregateEntry.COLUMN_PERIOD + " = ? AND " + AggregateEntry.COLUMN_PERIOD_START + " = ?",
+                new String[]{Integer.toString(period), Long.toString(DayIndex.startOfDay(julianStart))},
+                null, null, null);
+        assertTrue("Error: no aggregate for period " + period, cursor.moveToFirst());
+        return cursor;
+    }
+
+    public void testPeriodStarts() {
+        assertEquals(1, WeatherArchive.getDayOfMonth(JUNE_1_2015));
+        assertEquals(30, WeatherArchive.getDayOfMonth(JUNE_1_2015 - 2));
+        assertEquals(JUNE_1_2015, WeatherArchive.getPeriodStart(AggregateEntry.PERIOD_WEEK,
+                JUNE_1_2015 + 6));
+        assertEquals(JUNE_1_2015 - 31, WeatherArchive.getPeriodStart(AggregateEntry.PERIOD_MONTH,
+                JUNE_1_2015 - 1));
+    }
+
+    public void testArchiveMovesDaysAndAggregates() {
+        // Sunday May 31st, then Monday to Wednesday of the next week
+        insertDay(JUNE_1_2015 - 1, 800, 10, 20);
+        insertDay(JUNE_1_2015, 500, 12, 18.5);
+        insertDay(JUNE_1_2015 + 1, 600, -2.25, 4);
+        insertDay(JUNE_1_2015 + 2, 800, 14, 25);
+
+        assertEquals(3, archiveBefore(JUNE_1_2015 + 2, 0));
+        assertEquals(1, DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME));
+        assertEquals(3, DatabaseUtils.queryNumEntries(mDb, HistoryEntry.TABLE_NAME));
+
+        Cursor week = queryAggregate(AggregateEntry.PERIOD_WEEK, JUNE_1_2015);
+        assertEquals(2, week.getInt(week.getColumnIndex(AggregateEntry.COLUMN_DAYS)));
+        assertEquals(-2.25, week.getDouble(week.getColumnIndex(AggregateEntry.COLUMN_MIN_TEMP)));
+        assertEquals(18.5, week.getDouble(week.getColumnIndex(AggregateEntry.COLUMN_MAX_TEMP)));
+        assertEquals((12 + 18.5 - 2.25 + 4) / 4,
+                week.getDouble(week.getColumnIndex(AggregateEntry.COLUMN_AVG_TEMP)), 0.001);
+        assertEquals(2, week.getInt(week.getColumnIndex(AggregateEntry.COLUMN_PRECIPITATION_DAYS)));
+        week.close();
+
+        Cursor may = queryAggregate(AggregateEntry.PERIOD_MONTH, JUNE_1_2015 - 31);
+        assertEquals(1, may.getInt(may.getColumnIndex(AggregateEntry.COLUMN_DAYS)));
+        assertEquals(0, may.getInt(may.getColumnIndex(AggregateEntry.COLUMN_PRECIPITATION_DAYS)));
+        may.close();
+
+        // the next rotation only adds the new day to the aggregates
+        assertEquals(1, archiveBefore(JUNE_1_2015 + 3, 0));
+        week = queryAggregate(AggregateEntry.PERIOD_WEEK, JUNE_1_2015);
+        assertEquals(3, week.getInt(week.getColumnIndex(AggregateEntry.COLUMN_DAYS)));
+        assertEquals(25.0, week.getDouble(week.getColumnIndex(AggregateEntry.COLUMN_MAX_TEMP)));
+        week.close();
+    }
+
+    public void testArchivedDayIsCountedOnce() {
+        insertDay(JUNE_1_2015, 800, 10, 20);
+        archiveBefore(JUNE_1_2015 + 1, 0);
+        // the same day stored and archived again
+        insertDay(JUNE_1_2015, 800, 10, 20);
+        archiveBefore(JUNE_1_2015 + 1, 0);
+
+        Cursor day = queryAggregate(AggregateEntry.PERIOD_DAY, JUNE_1_2015);
+        assertEquals(1, day.getInt(day.getColumnIndex(AggregateEntry.COLUMN_DAYS)));
+        day.close();
+    }
+
+    public void testRetention() {
+        insertDay(JUNE_1_2015 - 40, 800, 10, 20);
+        insertDay(JUNE_1_2015, 800, 10, 20);
+        archiveBefore(JUNE_1_2015 + 1, JUNE_1_2015 - 10);
+
+        assertEquals(1, DatabaseUtils.queryNumEntries(mDb, HistoryEntry.TABLE_NAME));
+        assertEquals("Error: daily aggregates should follow the history", 1,
+                DatabaseUtils.queryNumEntries(mDb, AggregateEntry.TABLE_NAME,
+                        AggregateEntry.COLUMN_PERIOD + " = " + AggregateEntry.PERIOD_DAY));
+        // the monthly aggregate of the dropped day stays
+        queryAggregate(AggregateEntry.PERIOD_MONTH,
+                WeatherArchive.getPeriodStart(AggregateEntry.PERIOD_MONTH, JUNE_1_2015 - 40)).close();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestBackoffPolicy extends AndroidTestCase {
+
+    private static final String TEST_ENDPOINT = "test_endpoint";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        BackoffPolicy.forEndpoint(mContext, TEST_ENDPOINT).onSuccess();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        BackoffPolicy.forEndpoint(mContext, TEST_ENDPOINT).onSuccess();
+        super.tearDown();
+    }
+
+    public void testDelayGrowsWithJitter() {
+        long previousMax = 0;
+        for (int failures = 1; failures < 12; failures++) {
+            long min = BackoffPolicy.computeDelay(failures, 0);
+            long max = BackoffPolicy.computeDelay(failures, 0.999999);
+            assertTrue("Error: jitter should spread the delay", min < max);
+            assertTrue("Error: delay should not shrink", max >= previousMax);
+            assertTrue("Error: delay above the maximum", max <= BackoffPolicy.MAX_DELAY_MILLIS);
+            previousMax = max;
+        }
+        assertEquals(BackoffPolicy.BASE_DELAY_MILLIS / 2, BackoffPolicy.computeDelay(1, 0));
+    }
+
+    public void testCircuitOpensAndPersists() {
+        BackoffPolicy backoff = BackoffPolicy.forEndpoint(mContext, TEST_ENDPOINT);
+        assertEquals(0, backoff.getRemainingDelay());
+        for (int i = 1; i < BackoffPolicy.CIRCUIT_THRESHOLD; i++) {
+            backoff.onFailure();
+            assertFalse("Error: circuit opened too early", backoff.isCircuitOpen());
+        }
+        assertEquals("Error: circuit should open for the minimum time first",
+                BackoffPolicy.MIN_OPEN_MILLIS, backoff.onFailure());
+        assertTrue(backoff.isCircuitOpen());
+
+        // a new instance, as after a process restart, sees the same state
+        BackoffPolicy restored = new BackoffPolicy(mContext, TEST_ENDPOINT);
+        assertTrue("Error: circuit state was not persisted", restored.isCircuitOpen());
+        assertTrue(restored.getRemainingDelay() > 0);
+
+        assertEquals("Error: failed trial should reopen the circuit for longer",
+                2 * BackoffPolicy.MIN_OPEN_MILLIS, restored.onFailure());
+
+        restored.onSuccess();
+        assertFalse("Error: success should close the circuit", restored.isCircuitOpen());
+        assertEquals(0, restored.getRemainingDelay());
+    }
+
+    public void testConcurrentFailuresAreAllCounted() throws InterruptedException {
+        assertSame(BackoffPolicy.forEndpoint(mContext, TEST_ENDPOINT),
+                BackoffPolicy.forEndpoint(mContext, TEST_ENDPOINT));
+        Thread[] callers = new Thread[BackoffPolicy.CIRCUIT_THRESHOLD];
+        for (int i = 0; i < callers.length; i++) {
+            callers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    BackoffPolicy.forEndpoint(mContext, TEST_ENDPOINT).onFailure();
+                }
+            });
+            callers[i].start();
+        }
+        for (Thread caller : callers) {
+            caller.join();
+        }
+        assertTrue("Error: concurrent failures were lost",
+                BackoffPolicy.forEndpoint(mContext, TEST_ENDPOINT).isCircuitOpen());
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestSyncCoordinator extends AndroidTestCase {
+
+    private static final String FIRST_LOCATION = "94043";
+    private static final String SECOND_LOCATION = "London, GB";
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyncCoordinator.onSyncFinished(FIRST_LOCATION);
+        SyncCoordinator.onSyncFinished(SECOND_LOCATION);
+        super.tearDown();
+    }
+
+    public void testFinishOnlyEndsItsLocation() {
+        SyncCoordinator.onSyncStarted(FIRST_LOCATION);
+        // the preference changed while the first sync ran
+        SyncCoordinator.onSyncStarted(SECOND_LOCATION);
+        assertTrue(SyncCoordinator.hasSyncInFlight(FIRST_LOCATION));
+        assertTrue(SyncCoordinator.hasSyncInFlight(SECOND_LOCATION));
+
+        SyncCoordinator.onSyncFinished(FIRST_LOCATION);
+        assertFalse(SyncCoordinator.hasSyncInFlight(FIRST_LOCATION));
+        assertTrue("Error: the end of a sync should not end the one of another location",
+                SyncCoordinator.hasSyncInFlight(SECOND_LOCATION));
+
+        SyncCoordinator.onSyncFinished(SECOND_LOCATION);
+        assertFalse(SyncCoordinator.hasSyncInFlight(SECOND_LOCATION));
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestSyncScheduler extends AndroidTestCase {
+
+    private static int interval(boolean push, boolean unmetered, boolean charging, boolean idle,
+                                float volatility) {
+        return SyncScheduler.computeInterval(push, unmetered, charging, idle, volatility,
+                new StringBuilder());
+    }
+
+    public void testDefaultIntervals() {
+        assertEquals("Error: polling on wifi should keep the default interval",
+                SunshineSyncAdapter.SYNC_INTERVAL, interval(false, true, false, false, -1));
+        assertEquals("Error: push on wifi should keep the push interval",
+                SunshineSyncAdapter.PUSH_SYNC_INTERVAL, interval(true, true, false, false, -1));
+    }
+
+    public void testConditionsStretchInterval() {
+        int base = interval(false, true, false, false, -1);
+        assertTrue("Error: metered network should sync less often",
+                interval(false, false, false, false, -1) > base);
+        assertEquals("Error: charging should not be treated as metered",
+                base, interval(false, false, true, false, -1));
+        assertTrue("Error: idle app should sync less often",
+                interval(false, true, false, true, -1) > base);
+        assertTrue("Error: stable forecast should sync less often",
+                interval(false, true, false, false, 0.05f) > base);
+        assertTrue("Error: volatile forecast should sync more often",
+                interval(false, true, false, false, 0.8f) < base);
+    }
+
+    public void testIntervalBounds() {
+        assertEquals("Error: interval above the maximum", SyncScheduler.MAX_INTERVAL,
+                interval(true, false, false, true, 0));
+        assertTrue("Error: interval below the minimum",
+                interval(false, true, true, false, 1) >= SyncScheduler.MIN_INTERVAL);
+    }
+}
@@ -16,7 +16,6 @@
 package com.example.android.sunshine.app;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.view.ViewCompat;
@@ -30,11 +29,11 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.ForecastRepository;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
- * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * from a {@link ForecastRepository.Forecast} to a {@link android.support.v7.widget.RecyclerView}.
  */
 public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
@@ -44,7 +43,11 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
-    private Cursor mCursor;
+    private ForecastRepository.Forecast mForecast;
+    // Units the rows were formatted with, the stored data itself is always metric
+    private boolean mBoundMetric;
+    // Art pack the rows were drawn with
+    private String mBoundArtPack;
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
@@ -73,9 +76,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            mClickHandler.onClick(mForecast.get(adapterPosition).date, this);
             mICM.onClick(this);
         }
     }
@@ -124,8 +125,8 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        ForecastRepository.Day day = mForecast.get(position);
+        int weatherId = day.weatherId;
         int defaultImage;
         boolean useLongToday;
 
@@ -153,13 +154,11 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         // the animator can use this to re-find the original view
         ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
 
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        long dateInMillis = day.date;
 
         // Find TextView and set formatted date on it
         forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
 
-        // Read weather forecast from cursor
         String description = Utility.getStringForWeatherCondition(mContext, weatherId);
 
         // Find TextView and set weather forecast on it
@@ -170,14 +169,12 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+        double high = day.maxTemp;
         String highString = Utility.formatTemperature(mContext, high);
         forecastAdapterViewHolder.mHighTempView.setText(highString);
         forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+        double low = day.minTemp;
         String lowString = Utility.formatTemperature(mContext, low);
         forecastAdapterViewHolder.mLowTempView.setText(lowString);
         forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
@@ -208,18 +205,49 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        if ( null == mForecast ) return 0;
+        return mForecast.size();
     }
 
-    public void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
+    /**
+     * Shows the forecast.
+     * @return true if it only adds days after the ones shown, which were left as they are
+     */
+    public boolean swapForecast(ForecastRepository.Forecast forecast) {
+        ForecastRepository.Forecast previous = mForecast;
+        boolean metric = Utility.isMetric(mContext);
+        String artPack = Utility.getArtPack(mContext);
+        mForecast = forecast;
+        if (previous != null && forecast.size() > previous.size()
+                && metric == mBoundMetric && artPack.equals(mBoundArtPack)
+                && forecast.getDays().subList(0, previous.size()).equals(previous.getDays())) {
+            // a page was read after the days shown
+            notifyItemRangeInserted(previous.size(), forecast.size() - previous.size());
+            return true;
+        }
+        mBoundMetric = metric;
+        mBoundArtPack = artPack;
         notifyDataSetChanged();
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
+        return false;
+    }
+
+    /**
+     * Redraws the rows of the forecast already shown if the units or the art pack changed since
+     * they were bound.  No new read is needed since only the formatting differs.
+     */
+    public void refreshPreferences() {
+        boolean metric = Utility.isMetric(mContext);
+        String artPack = Utility.getArtPack(mContext);
+        if (mForecast != null && (metric != mBoundMetric || !artPack.equals(mBoundArtPack))) {
+            mBoundMetric = metric;
+            mBoundArtPack = artPack;
+            notifyDataSetChanged();
+        }
     }
 
-    public Cursor getCursor() {
-        return mCursor;
+    public ForecastRepository.Forecast getForecast() {
+        return mForecast;
     }
 
     public void selectView(RecyclerView.ViewHolder viewHolder) {
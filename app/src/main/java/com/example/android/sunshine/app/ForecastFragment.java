@@ -20,16 +20,12 @@ import android.app.Activity;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.TypedArray;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
-import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
-import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
@@ -45,13 +41,15 @@ import android.view.ViewTreeObserver;
 import android.widget.AbsListView;
 import android.widget.TextView;
 
+import com.example.android.sunshine.app.data.ForecastRepository;
+import com.example.android.sunshine.app.data.LastForecastCache;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
  * Encapsulates fetching the forecast and displaying it as a {@link android.support.v7.widget.RecyclerView} layout.
  */
-public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>, SharedPreferences.OnSharedPreferenceChangeListener {
+public class ForecastFragment extends Fragment implements ForecastRepository.ForecastObserver, SharedPreferences.OnSharedPreferenceChangeListener {
     public static final String LOG_TAG = ForecastFragment.class.getSimpleName();
     private ForecastAdapter mForecastAdapter;
     private RecyclerView mRecyclerView;
@@ -59,41 +57,21 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private int mChoiceMode;
     private boolean mHoldForTransition;
     private long mInitialSelectedDate = -1;
+    private boolean mShowingLastForecast;
+    // Subscription to the forecast of the preferred location, held while the fragment is started
+    private ForecastRepository.Window mSubscription;
+    // Days of the forecast the list asks for, a page more each time it is scrolled to the end
+    private int mRows = FORECAST_PAGE_SIZE;
+    private boolean mStarted;
+    // Set while the forecast of the last run is shown and the first frame is not drawn yet
+    private boolean mWaitingForFirstDraw;
 
     private static final String SELECTED_KEY = "selected_position";
 
-    private static final int FORECAST_LOADER = 0;
-    // For the forecast view we're showing only a small subset of the stored data.
-    // Specify the columns we need.
-    private static final String[] FORECAST_COLUMNS = {
-            // In this case the id needs to be fully qualified with a table name, since
-            // the content provider joins the location & weather tables in the background
-            // (both have an _id column)
-            // On the one hand, that's annoying.  On the other, you can search the weather table
-            // using the location set by the user, which is only in the Location table.
-            // So the convenience is worth it.
-            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
-            WeatherContract.WeatherEntry.COLUMN_DATE,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
-            WeatherContract.LocationEntry.COLUMN_COORD_LONG
-    };
-
-    // These indices are tied to FORECAST_COLUMNS.  If FORECAST_COLUMNS changes, these
-    // must change.
-    static final int COL_WEATHER_ID = 0;
-    static final int COL_WEATHER_DATE = 1;
-    static final int COL_WEATHER_DESC = 2;
-    static final int COL_WEATHER_MAX_TEMP = 3;
-    static final int COL_WEATHER_MIN_TEMP = 4;
-    static final int COL_LOCATION_SETTING = 5;
-    static final int COL_WEATHER_CONDITION_ID = 6;
-    static final int COL_COORD_LAT = 7;
-    static final int COL_COORD_LONG = 8;
+    // Rows per page of the list, the next page is read when fewer than half a page of rows are
+    // left below the last one shown
+    private static final int FORECAST_PAGE_SIZE = 14;
+    private static final int FORECAST_PREFETCH_ROWS = FORECAST_PAGE_SIZE / 2;
 
     /**
      * A callback interface that all activities containing this fragment must
@@ -122,6 +100,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getActivity());
         sp.registerOnSharedPreferenceChangeListener(this);
         super.onResume();
+        // units or art may have changed while the settings were shown
+        mForecastAdapter.refreshPreferences();
     }
 
     @Override
@@ -199,6 +179,12 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
         // specify an adapter (see also next example)
         mRecyclerView.setAdapter(mForecastAdapter);
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                loadNextPageIfNeeded();
+            }
+        });
 
         final View parallaxView = rootView.findViewById(R.id.parallax_bar);
         if (null != parallaxView) {
@@ -259,13 +245,115 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if ( mHoldForTransition ) {
             getActivity().supportPostponeEnterTransition();
         }
-        getLoaderManager().initLoader(FORECAST_LOADER, null, this);
+        ForecastRepository.Forecast lastForecast = null;
+        if (savedInstanceState == null && mForecastAdapter.getForecast() == null) {
+            lastForecast = LastForecastCache.readForecast(getActivity(),
+                    Utility.getPreferredLocation(getActivity()),
+                    WeatherContract.normalizeDate(System.currentTimeMillis()));
+        }
+        if (lastForecast != null) {
+            // Draw the first frame from the forecast saved by the last run, and only open the
+            // database once it is on screen
+            mShowingLastForecast = true;
+            mWaitingForFirstDraw = true;
+            mForecastAdapter.swapForecast(lastForecast);
+            runAfterNextDraw(new Runnable() {
+                @Override
+                public void run() {
+                    mWaitingForFirstDraw = false;
+                    if (isAdded() && mStarted) {
+                        subscribe();
+                    }
+                }
+            });
+        }
         super.onActivityCreated(savedInstanceState);
     }
 
-    // since we read the location when we create the loader, all we need to do is restart things
+    @Override
+    public void onStart() {
+        super.onStart();
+        mStarted = true;
+        if (!mWaitingForFirstDraw) {
+            subscribe();
+        }
+    }
+
+    @Override
+    public void onStop() {
+        mStarted = false;
+        unsubscribe();
+        super.onStop();
+    }
+
+    private void subscribe() {
+        if (mSubscription == null) {
+            mSubscription = ForecastRepository.getInstance(getActivity())
+                    .subscribe(Utility.getPreferredLocation(getActivity()), mRows, this);
+        }
+    }
+
+    private void unsubscribe() {
+        if (mSubscription != null) {
+            mSubscription.unsubscribe();
+            mSubscription = null;
+        }
+    }
+
+    /**
+     * Returns true while the list shows the forecast saved by the last run rather than the
+     * provider's.
+     */
+    public boolean isShowingLastForecast() {
+        return mShowingLastForecast;
+    }
+
+    private void runAfterNextDraw(final Runnable runnable) {
+        mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                // posted from the traversal, so it runs once the frame has been drawn
+                mRecyclerView.post(runnable);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Saves the days for the next cold start, off the UI thread.
+     */
+    private void saveLastForecast(ForecastRepository.Forecast forecast) {
+        LastForecastCache.save(getActivity(), forecast);
+    }
+
+    /**
+     * Asks for the next page of the forecast when the list is scrolled close enough to the end
+     * of the days delivered so far.
+     */
+    private void loadNextPageIfNeeded() {
+        ForecastRepository.Forecast forecast = mForecastAdapter.getForecast();
+        // the next page is not there yet, or there is none
+        if (mSubscription == null || mShowingLastForecast || forecast == null
+                || !forecast.hasMore() || forecast.size() < mRows) {
+            return;
+        }
+        int count = forecast.size();
+        LinearLayoutManager layoutManager = (LinearLayoutManager) mRecyclerView.getLayoutManager();
+        if (layoutManager.findLastVisibleItemPosition() < count - FORECAST_PREFETCH_ROWS) {
+            return;
+        }
+        mRows = count + FORECAST_PAGE_SIZE;
+        mSubscription.setRows(mRows);
+    }
+
+    // the subscription is to the forecast of one location, move it to the new one
     void onLocationChanged() {
-        getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
+        unsubscribe();
+        mRows = FORECAST_PAGE_SIZE;
+        if (mStarted && !mWaitingForFirstDraw) {
+            subscribe();
+        }
     }
 
     private void openPreferredLocationInMap() {
@@ -273,11 +361,10 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // intent can is detailed in the "Common Intents" page of Android's developer site:
         // http://developer.android.com/guide/components/intents-common.html#Maps
         if (null != mForecastAdapter) {
-            Cursor c = mForecastAdapter.getCursor();
-            if (null != c) {
-                c.moveToPosition(0);
-                String posLat = c.getString(COL_COORD_LAT);
-                String posLong = c.getString(COL_COORD_LONG);
+            ForecastRepository.Forecast forecast = mForecastAdapter.getForecast();
+            if (null != forecast && !forecast.isEmpty()) {
+                String posLat = Double.toString(forecast.coordLat);
+                String posLong = Double.toString(forecast.coordLong);
                 Uri geoLocation = Uri.parse("geo:" + posLat + "," + posLong);
 
                 Intent intent = new Intent(Intent.ACTION_VIEW);
@@ -302,33 +389,32 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // This is called when a new Loader needs to be created.  This
-        // fragment only uses one loader, so we don't care about checking the id.
-
-        // To only show current and future dates, filter the query to return weather only for
-        // dates after or including today.
-
-        // Sort order:  Ascending, by date.
-        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
-
-        String locationSetting = Utility.getPreferredLocation(getActivity());
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                locationSetting, System.currentTimeMillis());
-
-        return new CursorLoader(getActivity(),
-                weatherForLocationUri,
-                FORECAST_COLUMNS,
-                null,
-                null,
-                sortOrder);
-    }
-
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mForecastAdapter.swapCursor(data);
+    public void onForecastChanged(ForecastRepository.Forecast forecast) {
+        StartupMetrics.onRealData();
+        // delivered again when the fragment is started again, only a new forecast is redrawn
+        boolean firstData = mShowingLastForecast;
+        boolean unchanged = !firstData && forecast.equals(mForecastAdapter.getForecast());
+        mShowingLastForecast = false;
+        if (unchanged) {
+            return;
+        }
+        boolean nextPage = mForecastAdapter.swapForecast(forecast);
+        saveLastForecast(forecast);
+        if (!forecast.isEmpty()) {
+            // the days may not fill the screen, in which case no scroll asks for the next page
+            mRecyclerView.post(new Runnable() {
+                @Override
+                public void run() {
+                    loadNextPageIfNeeded();
+                }
+            });
+        }
+        if (nextPage && !firstData) {
+            // the list keeps its position and selection
+            return;
+        }
         updateEmptyView();
-        if ( data.getCount() == 0 ) {
+        if ( forecast.isEmpty() ) {
             getActivity().supportStartPostponedEnterTransition();
         } else {
             mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
@@ -341,12 +427,10 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                         int position = mForecastAdapter.getSelectedItemPosition();
                         if (position == RecyclerView.NO_POSITION &&
                                 -1 != mInitialSelectedDate) {
-                            Cursor data = mForecastAdapter.getCursor();
-                            int count = data.getCount();
-                            int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+                            ForecastRepository.Forecast data = mForecastAdapter.getForecast();
+                            int count = data.size();
                             for ( int i = 0; i < count; i++ ) {
-                                data.moveToPosition(i);
-                                if ( data.getLong(dateColumn) == mInitialSelectedDate ) {
+                                if ( data.get(i).date == mInitialSelectedDate ) {
                                     position = i;
                                     break;
                                 }
@@ -382,11 +466,6 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         }
     }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mForecastAdapter.swapCursor(null);
-    }
-
     public void setUseTodayLayout(boolean useTodayLayout) {
         mUseTodayLayout = useTodayLayout;
         if (mForecastAdapter != null) {
@@ -433,6 +512,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if (key.equals(getString(R.string.pref_location_status_key))) {
             updateEmptyView();
+        } else if (key.equals(getString(R.string.pref_units_key))) {
+            mForecastAdapter.refreshPreferences();
         }
     }
 }
\ No newline at end of file
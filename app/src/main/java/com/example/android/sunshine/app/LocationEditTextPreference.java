@@ -24,13 +24,29 @@ import android.preference.EditTextPreference;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.widget.ArrayAdapter;
+import android.widget.AutoCompleteTextView;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.Filter;
+
+import com.example.android.sunshine.app.data.CityIndex;
+
+import java.util.List;
 
 public class LocationEditTextPreference extends EditTextPreference {
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
+    static final private int MAX_SUGGESTIONS = 8;
     private int mMinLength;
 
+    // Offline list of cities, null if the build does not ship one
+    private final CityIndex mCityIndex;
+    // Field shown in the dialog in place of the plain one when there is a city index
+    private AutoCompleteTextView mAutoComplete;
+
     public LocationEditTextPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
         TypedArray a = context.getTheme().obtainStyledAttributes(
@@ -42,14 +58,46 @@ public class LocationEditTextPreference extends EditTextPreference {
         } finally {
             a.recycle();
         }
+        mCityIndex = CityIndex.getBundled(context);
     }
 
+    @Override
+    protected void onAddEditTextToDialogView(View dialogView, EditText editText) {
+        if (mCityIndex == null) {
+            super.onAddEditTextToDialogView(dialogView, editText);
+            return;
+        }
+        if (mAutoComplete == null) {
+            mAutoComplete = new AutoCompleteTextView(getContext());
+            mAutoComplete.setSingleLine();
+            mAutoComplete.setInputType(editText.getInputType());
+            mAutoComplete.setThreshold(mMinLength);
+            mAutoComplete.setAdapter(new CityAdapter(getContext()));
+        }
+        ViewParent oldParent = mAutoComplete.getParent();
+        if (oldParent != null) {
+            // still in the container of the last dialog
+            ((ViewGroup) oldParent).removeView(mAutoComplete);
+        }
+        mAutoComplete.setText(editText.getText());
+        mAutoComplete.setSelection(mAutoComplete.length());
+        super.onAddEditTextToDialogView(dialogView, mAutoComplete);
+    }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        if (positiveResult && mAutoComplete != null) {
+            // the setting reaches the sync as the name the weather server knows the city by
+            getEditText().setText(canonicalize(mAutoComplete.getText().toString()));
+        }
+        super.onDialogClosed(positiveResult);
+    }
 
     @Override
     protected void showDialog(Bundle state) {
         super.showDialog(state);
 
-        EditText et = getEditText();
+        final EditText et = mAutoComplete != null ? mAutoComplete : getEditText();
         et.addTextChangedListener(new TextWatcher() {
 
 
@@ -73,12 +121,84 @@ public class LocationEditTextPreference extends EditTextPreference {
                     if (s.length() < mMinLength) {
                         // Disable OK button
                         positiveButton.setEnabled(false);
+                    } else if (!isKnownLocation(s.toString())) {
+                        // Only a hint: the index does not hold every name the weather server
+                        // knows, which decides
+                        positiveButton.setEnabled(true);
+                        et.setError(getContext().getString(R.string.pref_location_not_found));
                     } else {
                         // Re-enable the button.
                         positiveButton.setEnabled(true);
+                        et.setError(null);
                     }
                 }
             }
         });
     }
+
+    /**
+     * Returns false for a city name missing from the city index, whatever the country after it.
+     * Postal codes and coordinates are left to the weather server.
+     */
+    private boolean isKnownLocation(String location) {
+        if (mCityIndex == null) {
+            return true;
+        }
+        for (int i = 0; i < location.length(); i++) {
+            if (Character.isDigit(location.charAt(i))) {
+                return true;
+            }
+        }
+        return mCityIndex.hasName(location);
+    }
+
+    /**
+     * Returns the setting of the city the location names, if the index tells which one it is,
+     * otherwise the location as typed.  A picked suggestion already is such a setting.
+     */
+    private String canonicalize(String location) {
+        CityIndex.City city = mCityIndex.find(location);
+        return city == null ? location : city.toLocationSetting();
+    }
+
+    /**
+     * Suggests the cities of the index starting with the text, looked up off the UI thread by
+     * the filter.
+     */
+    private class CityAdapter extends ArrayAdapter<String> {
+        private final Filter mFilter = new Filter() {
+            @Override
+            protected FilterResults performFiltering(CharSequence constraint) {
+                FilterResults results = new FilterResults();
+                if (constraint != null) {
+                    List<CityIndex.City> cities = mCityIndex.complete(constraint, MAX_SUGGESTIONS);
+                    results.values = cities;
+                    results.count = cities.size();
+                }
+                return results;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            protected void publishResults(CharSequence constraint, FilterResults results) {
+                setNotifyOnChange(false);
+                clear();
+                if (results.values != null) {
+                    for (CityIndex.City city : (List<CityIndex.City>) results.values) {
+                        add(city.toLocationSetting());
+                    }
+                }
+                notifyDataSetChanged();
+            }
+        };
+
+        CityAdapter(Context context) {
+            super(context, android.R.layout.simple_dropdown_item_1line);
+        }
+
+        @Override
+        public Filter getFilter() {
+            return mFilter;
+        }
+    }
 }
@@ -25,8 +25,10 @@ import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 
-import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncCoordinator;
+import com.example.android.sunshine.app.sync.WearableForecastPublisher;
+import com.example.android.sunshine.app.widget.WidgetUpdateScheduler;
 
 /**
  * A {@link PreferenceActivity} that presents a set of application settings.
@@ -50,6 +52,7 @@ public class SettingsActivity extends PreferenceActivity
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
+        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_history_retention_key)));
     }
 
     // Registers a shared preference change listener that gets notified when preferences change
@@ -135,17 +138,21 @@ public class SettingsActivity extends PreferenceActivity
             // we've changed the location
             // first clear locationStatus
             Utility.resetLocationStatus(this);
-            SunshineSyncAdapter.syncImmediately(this);
+            SyncCoordinator.requestSync(this, SyncCoordinator.DEFAULT_MAX_AGE_MILLIS);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
-            // units have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // units have changed. The stored data is always metric, so nothing needs to be
+            // queried again: the lists reformat their rows when they resume, the widgets and the
+            // watch are asked to render again
+            WidgetUpdateScheduler.scheduleUpdate(this);
+            WearableForecastPublisher.publishUnits(this);
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
             bindPreferenceSummaryToValue(locationPreference);
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
-            // art pack have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // art pack have changed. The lists redraw their rows when they resume, the widgets
+            // are asked to render again
+            WidgetUpdateScheduler.scheduleUpdate(this);
         }
     }
 
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Measures the first launch of MainActivity in this process: the time until its first frame is
+ * drawn, and the time until the forecast from the provider is shown.  Each is logged once, under
+ * the StartupMetrics tag.
+ */
+public class StartupMetrics {
+    private static final String LOG_TAG = StartupMetrics.class.getSimpleName();
+
+    // Uptime at the start of MainActivity.onCreate, 0 before it
+    private static long sStartTime;
+    private static boolean sFirstFrameRecorded;
+    private static boolean sRealDataRecorded;
+    // Whether the first frame showed the forecast saved by the previous run
+    private static boolean sFromCache;
+
+    private StartupMetrics() {
+    }
+
+    static void onActivityCreate() {
+        if (sStartTime == 0) {
+            sStartTime = SystemClock.uptimeMillis();
+        }
+    }
+
+    static void onFirstFrame(boolean fromCache) {
+        if (sStartTime == 0 || sFirstFrameRecorded) {
+            return;
+        }
+        sFirstFrameRecorded = true;
+        sFromCache = fromCache;
+        Log.i(LOG_TAG, "Time to first frame: " + (SystemClock.uptimeMillis() - sStartTime)
+                + "ms" + (fromCache ? " (last forecast)" : ""));
+    }
+
+    static void onRealData() {
+        if (sStartTime == 0 || sRealDataRecorded) {
+            return;
+        }
+        sRealDataRecorded = true;
+        Log.i(LOG_TAG, "Time to real data: " + (SystemClock.uptimeMillis() - sStartTime)
+                + "ms" + (sFromCache ? " (first frame from last forecast)" : ""));
+    }
+}
@@ -0,0 +1,499 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+
+/**
+ * An offline index of city names, a prefix trie in a compact binary file read through a memory
+ * mapping, so completing what the user types costs a walk down a few nodes and no parsing.
+ *
+ * Names are keyed lowercase without accents.  The cities are sorted by key and the children of
+ * a node by character, so the cities under any node, those whose key starts with its prefix,
+ * are one range of the city records, the ones whose key ends at the node first.
+ *
+ * Layout, all numbers big-endian:
+ * <pre>
+ * header    magic "SUNC", version (short), header size (short), node record size (short),
+ *           city record size (short), node count (int), city count (int), created (long),
+ *           reserved (int)                                                        32 bytes
+ * nodes     character (UTF-16 unit), child count (short), first child (int), first and end city
+ *           of the range under the node (ints), the root first, children contiguous
+ *                                                                                 16 bytes each
+ * cities    OpenWeatherMap city id (int), latitude and longitude (floats), country code (4 bytes
+ *           ASCII), name (48 bytes UTF-8)                                         64 bytes each
+ * </pre>
+ * Readers use the record sizes of the header, so later versions may append fields.
+ */
+public class CityIndex {
+    private static final String LOG_TAG = CityIndex.class.getSimpleName();
+
+    public static final int MAGIC = 0x53554e43;  // "SUNC"
+    public static final int VERSION = 1;
+
+    // Asset with the city list, if the build provides one
+    public static final String ASSET = "cities.sunc";
+
+    static final int HEADER_SIZE = 32;
+    static final int NODE_SIZE = 16;
+    static final int CITY_SIZE = 64;
+
+    private static final int COUNTRY_WIDTH = 4;
+    private static final int NAME_WIDTH = 48;
+
+    // Offsets of the fields in the records
+    private static final int NODE_CHAR = 0;
+    private static final int NODE_CHILD_COUNT = 2;
+    private static final int NODE_FIRST_CHILD = 4;
+    private static final int NODE_CITY_START = 8;
+    private static final int NODE_CITY_END = 12;
+    private static final int CITY_ID = 0;
+    private static final int CITY_LAT = 4;
+    private static final int CITY_LONG = 8;
+    private static final int CITY_COUNTRY = 12;
+    private static final int CITY_NAME = CITY_COUNTRY + COUNTRY_WIDTH;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * A city of the index.
+     */
+    public static class City {
+        public final int id;
+        public final String name;
+        public final String country;
+        public final double coordLat;
+        public final double coordLong;
+
+        public City(int id, String name, String country, double coordLat, double coordLong) {
+            this.id = id;
+            this.name = name;
+            this.country = country;
+            this.coordLat = coordLat;
+            this.coordLong = coordLong;
+        }
+
+        /**
+         * Returns the location setting naming the city unambiguously for OpenWeatherMap.
+         */
+        public String toLocationSetting() {
+            return name + ", " + country;
+        }
+
+        @Override
+        public String toString() {
+            return toLocationSetting();
+        }
+    }
+
+    private static CityIndex sBundled;
+    private static boolean sBundledOpened;
+
+    private final ByteBuffer mBuffer;
+    private final int mNodeSize;
+    private final int mCitySize;
+    private final int mNodeCount;
+    private final int mCityCount;
+    private final int mNodesOffset;
+    private final int mCitiesOffset;
+
+    private CityIndex(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a city index");
+        }
+        int version = buffer.getShort(4);
+        if (version > VERSION) {
+            throw new IOException("Unsupported city index version " + version);
+        }
+        int headerSize = buffer.getShort(6);
+        mNodeSize = buffer.getShort(8);
+        mCitySize = buffer.getShort(10);
+        mNodeCount = buffer.getInt(12);
+        mCityCount = buffer.getInt(16);
+        if (headerSize < HEADER_SIZE || mNodeSize < NODE_SIZE || mCitySize < CITY_SIZE
+                || mNodeCount < 1 || mCityCount < 0) {
+            throw new IOException("Corrupt city index header");
+        }
+        long citiesOffset = headerSize + (long) mNodeCount * mNodeSize;
+        if (citiesOffset + (long) mCityCount * mCitySize > buffer.capacity()) {
+            throw new IOException("Truncated city index");
+        }
+        mNodesOffset = headerSize;
+        mCitiesOffset = (int) citiesOffset;
+    }
+
+    /**
+     * Maps an index file.
+     */
+    public static CityIndex open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            // the mapping stays valid once the file is closed
+            return new CityIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Maps an index shipped in the assets.  Mapping needs the asset to be stored uncompressed,
+     * see aaptOptions in build.gradle.
+     */
+    public static CityIndex openAsset(Context context, String name) throws IOException {
+        AssetFileDescriptor descriptor = context.getAssets().openFd(name);
+        FileInputStream in = descriptor.createInputStream();
+        try {
+            return new CityIndex(in.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    descriptor.getStartOffset(), descriptor.getDeclaredLength()));
+        } finally {
+            in.close();
+            descriptor.close();
+        }
+    }
+
+    /**
+     * Returns the index of the {@link #ASSET}, mapped once per process, or null if the build
+     * does not ship one.
+     */
+    public static synchronized CityIndex getBundled(Context context) {
+        if (!sBundledOpened) {
+            sBundledOpened = true;
+            try {
+                sBundled = openAsset(context.getApplicationContext(), ASSET);
+            } catch (IOException e) {
+                // not shipped, or unreadable: the location is entered without completion
+                Log.d(LOG_TAG, "No city index: " + e.getMessage());
+            }
+        }
+        return sBundled;
+    }
+
+    public int getCityCount() {
+        return mCityCount;
+    }
+
+    /**
+     * Returns at most limit cities whose name starts with the prefix, in the order of their keys.
+     * A prefix of the form "name, country" completes the name within the countries starting with
+     * the country given.
+     */
+    public List<City> complete(CharSequence prefix, int limit) {
+        List<City> cities = new ArrayList<City>();
+        String[] nameAndCountry = splitCountry(prefix.toString());
+        String key = getKey(nameAndCountry[0]);
+        int node = key.length() == 0 ? -1 : findNode(key);
+        if (node == -1) {
+            return cities;
+        }
+        int offset = nodeOffset(node);
+        int end = mBuffer.getInt(offset + NODE_CITY_END);
+        for (int i = mBuffer.getInt(offset + NODE_CITY_START); i < end && cities.size() < limit; i++) {
+            City city = getCity(i);
+            if (nameAndCountry[1] == null || city.country.regionMatches(true, 0,
+                    getCountryCode(nameAndCountry[1]), 0, nameAndCountry[1].length())) {
+                cities.add(city);
+            }
+        }
+        return cities;
+    }
+
+    /**
+     * Returns the city a location setting names, as "name" or "name, country code", or null if
+     * it is not in the index or the setting does not tell which one it is: a name shared by
+     * several cities without a country code telling them apart, or a country that is not a code.
+     */
+    public City find(String locationSetting) {
+        String[] nameAndCountry = splitCountry(locationSetting);
+        int[] range = findName(nameAndCountry[0]);
+        if (range == null) {
+            return null;
+        }
+        City found = null;
+        for (int i = range[0]; i < range[1]; i++) {
+            City city = getCity(i);
+            if (matchesCountry(city, nameAndCountry[1])) {
+                if (found != null) {
+                    return null;
+                }
+                found = city;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns true if the index has a city with the name of the location setting, whatever its
+     * country.
+     */
+    public boolean hasName(String locationSetting) {
+        return findName(splitCountry(locationSetting)[0]) != null;
+    }
+
+    /**
+     * Returns the range of the cities whose key is the one of the name, or null if there are none.
+     */
+    private int[] findName(String name) {
+        String key = getKey(name);
+        int node = key.length() == 0 ? -1 : findNode(key);
+        if (node == -1) {
+            return null;
+        }
+        // the cities whose key ends at the node come before those of its children
+        int offset = nodeOffset(node);
+        int start = mBuffer.getInt(offset + NODE_CITY_START);
+        int end = mBuffer.getShort(offset + NODE_CHILD_COUNT) == 0
+                ? mBuffer.getInt(offset + NODE_CITY_END)
+                : mBuffer.getInt(nodeOffset(mBuffer.getInt(offset + NODE_FIRST_CHILD))
+                        + NODE_CITY_START);
+        return start < end ? new int[]{start, end} : null;
+    }
+
+    /**
+     * Returns true if the city is in the country given, any country if it is null.  Only
+     * country codes match, a country name like "France" matches no city.
+     */
+    private static boolean matchesCountry(City city, String country) {
+        return country == null || city.country.equalsIgnoreCase(getCountryCode(country));
+    }
+
+    /**
+     * Returns the ISO code of a country code OpenWeatherMap accepts, "GB" for "UK".
+     */
+    private static String getCountryCode(String country) {
+        return country.equalsIgnoreCase("UK") ? "GB" : country;
+    }
+
+    /**
+     * Splits "name, country" into the name and the country, null if there is no text of
+     * letters after the last comma.
+     */
+    private static String[] splitCountry(String locationSetting) {
+        int comma = locationSetting.lastIndexOf(',');
+        if (comma != -1) {
+            String country = locationSetting.substring(comma + 1).trim();
+            if (country.length() > 0 && Character.isLetter(country.charAt(0))
+                    && Character.isLetter(country.charAt(country.length() - 1))) {
+                return new String[]{locationSetting.substring(0, comma), country};
+            }
+            if (country.length() == 0) {
+                // "Paris," while typing
+                return new String[]{locationSetting.substring(0, comma), null};
+            }
+        }
+        return new String[]{locationSetting, null};
+    }
+
+    /**
+     * Returns the key a name is indexed by: lowercase, without accents and with single spaces.
+     */
+    static String getKey(String name) {
+        String key = Normalizer.normalize(name, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase(Locale.US)
+                .trim();
+        return key.replaceAll("\\s+", " ");
+    }
+
+    /**
+     * Returns the node of a key, or -1 if no indexed name starts with it.
+     */
+    private int findNode(String key) {
+        int node = 0;
+        for (int i = 0; i < key.length(); i++) {
+            int offset = nodeOffset(node);
+            char c = key.charAt(i);
+            // the children are sorted by character
+            int low = mBuffer.getInt(offset + NODE_FIRST_CHILD);
+            int high = low + mBuffer.getShort(offset + NODE_CHILD_COUNT) - 1;
+            node = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char midChar = mBuffer.getChar(nodeOffset(mid) + NODE_CHAR);
+                if (midChar < c) {
+                    low = mid + 1;
+                } else if (midChar > c) {
+                    high = mid - 1;
+                } else {
+                    node = mid;
+                    break;
+                }
+            }
+            if (node == -1) {
+                return -1;
+            }
+        }
+        return node;
+    }
+
+    private City getCity(int city) {
+        int offset = mCitiesOffset + city * mCitySize;
+        return new City(mBuffer.getInt(offset + CITY_ID),
+                getString(offset + CITY_NAME, NAME_WIDTH),
+                getString(offset + CITY_COUNTRY, COUNTRY_WIDTH),
+                mBuffer.getFloat(offset + CITY_LAT),
+                mBuffer.getFloat(offset + CITY_LONG));
+    }
+
+    private int nodeOffset(int node) {
+        if (node < 0 || node >= mNodeCount) {
+            throw new IndexOutOfBoundsException("Node " + node);
+        }
+        return mNodesOffset + node * mNodeSize;
+    }
+
+    private String getString(int offset, int width) {
+        byte[] bytes = new byte[width];
+        for (int i = 0; i < width; i++) {
+            bytes[i] = mBuffer.get(offset + i);
+        }
+        int length = 0;
+        while (length < width && bytes[length] != 0) {
+            length++;
+        }
+        return new String(bytes, 0, length, UTF_8);
+    }
+
+    // Node of the trie while it is built
+    private static class Node {
+        final char c;
+        final TreeMap<Character, Node> children = new TreeMap<Character, Node>();
+        int cityStart;
+        int cityEnd;
+        int index;
+
+        Node(char c) {
+            this.c = c;
+        }
+    }
+
+    /**
+     * Writes an index of the given cities.  The file is replaced only once the new one is
+     * complete.
+     */
+    public static void write(File file, List<City> cities) throws IOException {
+        final List<City> sorted = new ArrayList<City>(cities);
+        final List<String> keys = new ArrayList<String>();
+        Collections.sort(sorted, new Comparator<City>() {
+            @Override
+            public int compare(City lhs, City rhs) {
+                return getKey(lhs.name).compareTo(getKey(rhs.name));
+            }
+        });
+        for (City city : sorted) {
+            keys.add(getKey(city.name));
+        }
+
+        // each city extends the ranges of the nodes of its key, which it is the last one of
+        Node root = new Node('\0');
+        for (int i = 0; i < sorted.size(); i++) {
+            Node node = root;
+            node.cityEnd = i + 1;
+            String key = keys.get(i);
+            for (int j = 0; j < key.length(); j++) {
+                Node child = node.children.get(key.charAt(j));
+                if (child == null) {
+                    child = new Node(key.charAt(j));
+                    child.cityStart = i;
+                    node.children.put(child.c, child);
+                }
+                child.cityEnd = i + 1;
+                node = child;
+            }
+        }
+
+        // breadth first, so the children of each node are contiguous
+        List<Node> nodes = new ArrayList<Node>();
+        nodes.add(root);
+        for (int i = 0; i < nodes.size(); i++) {
+            for (Node child : nodes.get(i).children.values()) {
+                child.index = nodes.size();
+                nodes.add(child);
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(
+                HEADER_SIZE + nodes.size() * NODE_SIZE + sorted.size() * CITY_SIZE);
+        buffer.position(HEADER_SIZE);
+        for (Node node : nodes) {
+            buffer.putChar(node.c);
+            buffer.putShort((short) node.children.size());
+            buffer.putInt(node.children.isEmpty() ? 0 : node.children.firstEntry().getValue().index);
+            buffer.putInt(node.cityStart);
+            buffer.putInt(node.cityEnd);
+        }
+        for (City city : sorted) {
+            buffer.putInt(city.id);
+            buffer.putFloat((float) city.coordLat);
+            buffer.putFloat((float) city.coordLong);
+            putString(buffer, city.country, COUNTRY_WIDTH);
+            putString(buffer, city.name, NAME_WIDTH);
+        }
+
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, (short) VERSION);
+        buffer.putShort(6, (short) HEADER_SIZE);
+        buffer.putShort(8, (short) NODE_SIZE);
+        buffer.putShort(10, (short) CITY_SIZE);
+        buffer.putInt(12, nodes.size());
+        buffer.putInt(16, sorted.size());
+        buffer.putLong(20, System.currentTimeMillis());
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(buffer.array(), 0, buffer.position());
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, String value, int width) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(UTF_8);
+        int length = Math.min(bytes.length, width);
+        // don't cut a multi-byte character in two
+        while (length < bytes.length && length > 0 && (bytes[length] & 0xc0) == 0x80) {
+            length--;
+        }
+        buffer.put(bytes, 0, length);
+        for (int i = length; i < width; i++) {
+            buffer.put((byte) 0);
+        }
+    }
+}
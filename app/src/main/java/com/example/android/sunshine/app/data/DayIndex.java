@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.TimeZone;
+
+/**
+ * Day arithmetic on primitive values, replacing the {@link android.text.format.Time} objects
+ * the app used to create for every date it touched.  Days are Julian day numbers in the default
+ * time zone, the same numbers Time.getJulianDay returns, and the start of a day is its local
+ * midnight, the value Time.setJulianDay returns.
+ *
+ * The zone offsets are cached per UTC day, so the methods do not allocate.  The cache is reset
+ * by {@link TimeZoneChangedReceiver} when the device changes time zone.
+ */
+public class DayIndex {
+    public static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    // Julian day number of January 1st 1970
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+
+    // Direct mapped cache of zone offsets, one entry per UTC day
+    private static final int CACHE_SIZE = 64;
+    private static final long[] sCachedDays = new long[CACHE_SIZE];
+    private static final int[] sCachedOffsets = new int[CACHE_SIZE];
+    // Marks a cached day in which the offset changes, those days ask the zone every time
+    private static final int OFFSET_CHANGES = Integer.MIN_VALUE;
+
+    private static TimeZone sTimeZone;
+
+    static {
+        clearCache();
+    }
+
+    private DayIndex() {
+    }
+
+    /**
+     * Returns the Julian day containing the given time in the default time zone.
+     */
+    public static int julianDay(long millis) {
+        return (int) floorDiv(millis + getOffset(millis), DAY_IN_MILLIS) + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * Returns the time of the local midnight starting the given Julian day.
+     */
+    public static long startOfDay(int julianDay) {
+        long utcMidnight = (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+        // The offset at local midnight may differ from the one at UTC midnight, refine once
+        long guess = utcMidnight - getOffset(utcMidnight);
+        return utcMidnight - getOffset(guess);
+    }
+
+    /**
+     * Returns the local midnight starting the day of the given time.
+     */
+    public static long normalize(long millis) {
+        return startOfDay(julianDay(millis));
+    }
+
+    /**
+     * Forgets the cached time zone, the default one is looked up again on the next call.
+     */
+    public static synchronized void onTimeZoneChanged() {
+        sTimeZone = null;
+        clearCache();
+    }
+
+    /**
+     * Returns the offset from UTC of the default time zone at the given time.
+     */
+    static synchronized int getOffset(long millis) {
+        if (sTimeZone == null) {
+            sTimeZone = TimeZone.getDefault();
+        }
+        long utcDay = floorDiv(millis, DAY_IN_MILLIS);
+        int slot = (int) (utcDay & (CACHE_SIZE - 1));
+        if (sCachedDays[slot] != utcDay) {
+            int startOffset = sTimeZone.getOffset(utcDay * DAY_IN_MILLIS);
+            int endOffset = sTimeZone.getOffset(utcDay * DAY_IN_MILLIS + DAY_IN_MILLIS - 1);
+            sCachedDays[slot] = utcDay;
+            sCachedOffsets[slot] = startOffset == endOffset ? startOffset : OFFSET_CHANGES;
+        }
+        int offset = sCachedOffsets[slot];
+        return offset != OFFSET_CHANGES ? offset : sTimeZone.getOffset(millis);
+    }
+
+    private static void clearCache() {
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            sCachedDays[i] = Long.MIN_VALUE;
+        }
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            q--;
+        }
+        return q;
+    }
+}
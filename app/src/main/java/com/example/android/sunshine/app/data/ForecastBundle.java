@@ -0,0 +1,480 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+/**
+ * A forecast cache in a compact binary file, read through a memory mapping so opening it costs
+ * neither parsing nor SQL.  Bundles are used to seed the database of a fresh install from an
+ * asset, and to export the whole cache after each sync.
+ *
+ * Layout, all numbers big-endian:
+ * <pre>
+ * header    magic "SUNF", version (short), header size (short), location record size (short),
+ *           day record size (short), location count (int), day count (int), created (long),
+ *           reserved (int)                                                        32 bytes
+ * locations setting length (short), setting (62 bytes UTF-8), city name (48 bytes UTF-8),
+ *           latitude and longitude (doubles)                                     128 bytes each
+ * days      location index (short), weather id (short), Julian day (int), min, max, humidity,
+ *           pressure, wind speed and direction (floats), short description (16 bytes UTF-8)
+ *                                                                                 48 bytes each
+ * </pre>
+ * Strings are zero padded and cut to their width, except the location setting, which is how a
+ * location is found again: it is stored with its length, and a location whose setting does not
+ * fit is left out of the bundle with its days.  Days are Julian days rather than millis, so a
+ * bundle made in one time zone imports as the same calendar days in another.  Readers use the
+ * record sizes of the header, so later versions may append fields to the records.
+ */
+public class ForecastBundle {
+    private static final String LOG_TAG = ForecastBundle.class.getSimpleName();
+
+    public static final int MAGIC = 0x53554e46;  // "SUNF"
+    public static final int VERSION = 2;
+    // Version 1 cut the location settings to 16 bytes
+    private static final int MIN_VERSION = 2;
+
+    // Asset seeding the database of a fresh install, if the build provides one
+    static final String SEED_ASSET = "forecast_seed.sunf";
+    // Export of the cache written after each sync, read back when the database is recreated
+    public static final String CACHE_FILE = "forecast.sunf";
+
+    static final int HEADER_SIZE = 32;
+    static final int LOCATION_SIZE = 128;
+    static final int DAY_SIZE = 48;
+
+    static final int SETTING_WIDTH = 62;
+    private static final int CITY_WIDTH = 48;
+    private static final int DESC_WIDTH = 16;
+
+    // Offsets of the fields in the records
+    private static final int LOCATION_SETTING_LENGTH = 0;
+    private static final int LOCATION_SETTING = 2;
+    private static final int LOCATION_CITY = LOCATION_SETTING + SETTING_WIDTH;
+    private static final int LOCATION_LAT = LOCATION_CITY + CITY_WIDTH;
+    private static final int LOCATION_LONG = LOCATION_LAT + 8;
+    private static final int DAY_LOCATION = 0;
+    private static final int DAY_WEATHER_ID = 2;
+    private static final int DAY_JULIAN_DAY = 4;
+    private static final int DAY_MIN = 8;
+    private static final int DAY_MAX = 12;
+    private static final int DAY_HUMIDITY = 16;
+    private static final int DAY_PRESSURE = 20;
+    private static final int DAY_WIND_SPEED = 24;
+    private static final int DAY_DEGREES = 28;
+    private static final int DAY_DESC = 32;
+
+    // Projections of the export, write reads the columns by these indices
+    static final String[] LOCATION_COLUMNS = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+    static final String[] DAY_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
+    };
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mBuffer;
+    private final int mLocationSize;
+    private final int mDaySize;
+    private final int mLocationCount;
+    private final int mDayCount;
+    private final int mLocationsOffset;
+    private final int mDaysOffset;
+    private final long mCreated;
+
+    private ForecastBundle(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a forecast bundle");
+        }
+        int version = buffer.getShort(4);
+        if (version < MIN_VERSION || version > VERSION) {
+            throw new IOException("Unsupported forecast bundle version " + version);
+        }
+        int headerSize = buffer.getShort(6);
+        mLocationSize = buffer.getShort(8);
+        mDaySize = buffer.getShort(10);
+        mLocationCount = buffer.getInt(12);
+        mDayCount = buffer.getInt(16);
+        mCreated = buffer.getLong(20);
+        if (headerSize < HEADER_SIZE || mLocationSize < LOCATION_SIZE || mDaySize < DAY_SIZE
+                || mLocationCount < 0 || mDayCount < 0) {
+            throw new IOException("Corrupt forecast bundle header");
+        }
+        long daysOffset = headerSize + (long) mLocationCount * mLocationSize;
+        if (daysOffset + (long) mDayCount * mDaySize > buffer.capacity()) {
+            throw new IOException("Truncated forecast bundle");
+        }
+        mLocationsOffset = headerSize;
+        mDaysOffset = (int) daysOffset;
+    }
+
+    /**
+     * Maps a bundle file.
+     */
+    public static ForecastBundle open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            // the mapping stays valid once the file is closed
+            return new ForecastBundle(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Maps a bundle shipped in the assets.  Mapping needs the asset to be stored uncompressed,
+     * see aaptOptions in build.gradle.
+     */
+    public static ForecastBundle openAsset(Context context, String name) throws IOException {
+        AssetFileDescriptor descriptor = context.getAssets().openFd(name);
+        FileInputStream in = descriptor.createInputStream();
+        try {
+            return new ForecastBundle(in.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    descriptor.getStartOffset(), descriptor.getDeclaredLength()));
+        } finally {
+            in.close();
+            descriptor.close();
+        }
+    }
+
+    /**
+     * Returns when the bundle was written.  Bundles are made from a freshly fetched forecast,
+     * the export right after each sync, so this is also when their forecast was issued.
+     */
+    public long getCreated() {
+        return mCreated;
+    }
+
+    public int getLocationCount() {
+        return mLocationCount;
+    }
+
+    public String getLocationSetting(int location) {
+        int offset = locationOffset(location);
+        int length = mBuffer.getShort(offset + LOCATION_SETTING_LENGTH);
+        return getString(offset + LOCATION_SETTING, Math.max(0, Math.min(length, SETTING_WIDTH)));
+    }
+
+    public String getCityName(int location) {
+        return getString(locationOffset(location) + LOCATION_CITY, CITY_WIDTH);
+    }
+
+    public double getCoordLat(int location) {
+        return mBuffer.getDouble(locationOffset(location) + LOCATION_LAT);
+    }
+
+    public double getCoordLong(int location) {
+        return mBuffer.getDouble(locationOffset(location) + LOCATION_LONG);
+    }
+
+    /**
+     * Returns the index of the location with the given setting, or -1.
+     */
+    public int findLocation(String locationSetting) {
+        for (int i = 0; i < mLocationCount; i++) {
+            if (getLocationSetting(i).equals(locationSetting)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getDayCount() {
+        return mDayCount;
+    }
+
+    /**
+     * Returns the index of the location the day belongs to.
+     */
+    public int getDayLocation(int day) {
+        return mBuffer.getShort(dayOffset(day) + DAY_LOCATION);
+    }
+
+    public int getJulianDay(int day) {
+        return mBuffer.getInt(dayOffset(day) + DAY_JULIAN_DAY);
+    }
+
+    /**
+     * Returns the date of the day as stored in the database, its local midnight.
+     */
+    public long getDate(int day) {
+        return DayIndex.startOfDay(getJulianDay(day));
+    }
+
+    public int getWeatherId(int day) {
+        return mBuffer.getShort(dayOffset(day) + DAY_WEATHER_ID);
+    }
+
+    public float getMinTemp(int day) {
+        return mBuffer.getFloat(dayOffset(day) + DAY_MIN);
+    }
+
+    public float getMaxTemp(int day) {
+        return mBuffer.getFloat(dayOffset(day) + DAY_MAX);
+    }
+
+    public float getHumidity(int day) {
+        return mBuffer.getFloat(dayOffset(day) + DAY_HUMIDITY);
+    }
+
+    public float getPressure(int day) {
+        return mBuffer.getFloat(dayOffset(day) + DAY_PRESSURE);
+    }
+
+    public float getWindSpeed(int day) {
+        return mBuffer.getFloat(dayOffset(day) + DAY_WIND_SPEED);
+    }
+
+    public float getDegrees(int day) {
+        return mBuffer.getFloat(dayOffset(day) + DAY_DEGREES);
+    }
+
+    public String getShortDesc(int day) {
+        return getString(dayOffset(day) + DAY_DESC, DESC_WIDTH);
+    }
+
+    /**
+     * Inserts the locations and days of the bundle into the database, replacing the stored
+     * forecast for the same days.  Their versions are recorded as issued when the bundle was
+     * written, not when it is imported.
+     * @return the number of days inserted
+     */
+    public int importInto(SQLiteDatabase db) {
+        int inserted = 0;
+        db.beginTransaction();
+        try {
+            long[] locationIds = new long[mLocationCount];
+            for (int i = 0; i < mLocationCount; i++) {
+                locationIds[i] = importLocation(db, i);
+            }
+            ContentValues values = new ContentValues();
+            for (int day = 0; day < mDayCount; day++) {
+                int location = getDayLocation(day);
+                if (location < 0 || location >= mLocationCount || locationIds[location] == -1) {
+                    continue;
+                }
+                values.clear();
+                values.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationIds[location]);
+                values.put(WeatherContract.WeatherEntry.COLUMN_DATE, getDate(day));
+                values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, getWeatherId(day));
+                values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, getShortDesc(day));
+                values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, getMinTemp(day));
+                values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, getMaxTemp(day));
+                values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, getHumidity(day));
+                values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, getPressure(day));
+                values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, getWindSpeed(day));
+                values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, getDegrees(day));
+                if (WeatherStorage.insert(db, values, mCreated) != -1) {
+                    inserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return inserted;
+    }
+
+    private long importLocation(SQLiteDatabase db, int location) {
+        String setting = getLocationSetting(location);
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{setting}, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, setting);
+        values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, getCityName(location));
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, getCoordLat(location));
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, getCoordLong(location));
+        return db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Writes the whole cache of the provider to {@link #CACHE_FILE} in the app's files.
+     * Does disk I/O, not to be called from the UI thread.
+     */
+    public static void exportCache(Context context) {
+        try {
+            export(context.getContentResolver(), new File(context.getFilesDir(), CACHE_FILE));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error exporting the forecast", e);
+        }
+    }
+
+    /**
+     * Writes every location and day of the provider to a bundle file.
+     */
+    public static void export(ContentResolver resolver, File file) throws IOException {
+        Cursor locations = resolver.query(WeatherContract.LocationEntry.CONTENT_URI,
+                LOCATION_COLUMNS, null, null, null);
+        Cursor days = resolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                DAY_COLUMNS, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            if (locations == null || days == null) {
+                throw new IOException("Provider unavailable");
+            }
+            write(file, locations, days);
+        } finally {
+            if (locations != null) {
+                locations.close();
+            }
+            if (days != null) {
+                days.close();
+            }
+        }
+    }
+
+    /**
+     * Writes a bundle from cursors with the {@link #LOCATION_COLUMNS} and {@link #DAY_COLUMNS}
+     * projections.  The file is replaced only once the new one is complete.
+     */
+    static void write(File file, Cursor locations, Cursor days) throws IOException {
+        HashMap<Long, Integer> locationIndices = new HashMap<Long, Integer>();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE
+                + locations.getCount() * LOCATION_SIZE + days.getCount() * DAY_SIZE);
+
+        buffer.position(HEADER_SIZE);
+        for (boolean hasRow = locations.moveToFirst(); hasRow; hasRow = locations.moveToNext()) {
+            byte[] setting = locations.getString(1).getBytes(UTF_8);
+            if (setting.length > SETTING_WIDTH) {
+                // a cut setting would be imported as another location
+                Log.w(LOG_TAG, "Leaving out location " + locations.getString(1));
+                continue;
+            }
+            locationIndices.put(locations.getLong(0), locationIndices.size());
+            buffer.putShort((short) setting.length);
+            putString(buffer, locations.getString(1), SETTING_WIDTH);
+            putString(buffer, locations.getString(2), CITY_WIDTH);
+            buffer.putDouble(locations.getDouble(3));
+            buffer.putDouble(locations.getDouble(4));
+        }
+
+        int dayCount = 0;
+        for (boolean hasRow = days.moveToFirst(); hasRow; hasRow = days.moveToNext()) {
+            Integer location = locationIndices.get(days.getLong(0));
+            if (location == null) {
+                continue;
+            }
+            buffer.putShort(location.shortValue());
+            buffer.putShort((short) days.getInt(2));
+            buffer.putInt(DayIndex.julianDay(days.getLong(1)));
+            for (int column = 3; column <= 8; column++) {
+                buffer.putFloat(days.getFloat(column));
+            }
+            putString(buffer, days.getString(9), DESC_WIDTH);
+            dayCount++;
+        }
+
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, (short) VERSION);
+        buffer.putShort(6, (short) HEADER_SIZE);
+        buffer.putShort(8, (short) LOCATION_SIZE);
+        buffer.putShort(10, (short) DAY_SIZE);
+        buffer.putInt(12, locationIndices.size());
+        buffer.putInt(16, dayCount);
+        buffer.putLong(20, System.currentTimeMillis());
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(buffer.array(), 0, buffer.position());
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private int locationOffset(int location) {
+        if (location < 0 || location >= mLocationCount) {
+            throw new IndexOutOfBoundsException("Location " + location);
+        }
+        return mLocationsOffset + location * mLocationSize;
+    }
+
+    private int dayOffset(int day) {
+        if (day < 0 || day >= mDayCount) {
+            throw new IndexOutOfBoundsException("Day " + day);
+        }
+        return mDaysOffset + day * mDaySize;
+    }
+
+    private String getString(int offset, int width) {
+        byte[] bytes = new byte[width];
+        for (int i = 0; i < width; i++) {
+            bytes[i] = mBuffer.get(offset + i);
+        }
+        int length = 0;
+        while (length < width && bytes[length] != 0) {
+            length++;
+        }
+        return new String(bytes, 0, length, UTF_8);
+    }
+
+    private static void putString(ByteBuffer buffer, String value, int width) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(UTF_8);
+        int length = Math.min(bytes.length, width);
+        // don't cut a multi-byte character in two
+        while (length < bytes.length && length > 0 && (bytes[length] & 0xc0) == 0x80) {
+            length--;
+        }
+        buffer.put(bytes, 0, length);
+        for (int i = length; i < width; i++) {
+            buffer.put((byte) 0);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.util.HashMap;
+
+/**
+ * A read-only cursor over forecast rows held in primitive arrays, one array per column.  The
+ * forecast is a couple of weeks of rows, so it is cheaper to copy it once out of SQLite than to
+ * have the list and the widgets go through the CursorWindow and its per-cell type checks every
+ * time a row is bound.
+ *
+ * Only the columns of the weather and location tables are supported, their storage type comes
+ * from the schema in {@link WeatherDbHelper}, where none of them can be null.
+ */
+public class ForecastCursor extends AbstractCursor {
+
+    private static final int TYPE_LONG = 0;
+    private static final int TYPE_DOUBLE = 1;
+    private static final int TYPE_STRING = 2;
+
+    private static final HashMap<String, Integer> sColumnTypes = new HashMap<String, Integer>();
+
+    static {
+        sColumnTypes.put(WeatherContract.WeatherEntry._ID, TYPE_LONG);
+        sColumnTypes.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, TYPE_LONG);
+        sColumnTypes.put(WeatherContract.WeatherEntry.COLUMN_DATE, TYPE_LONG);
+        sColumnTypes.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, TYPE_LONG);
+        sColumnTypes.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, TYPE_STRING);
+        sColumnTypes.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, TYPE_DOUBLE);
+        sColumnTypes.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, TYPE_DOUBLE);
+        sColumnTypes.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, TYPE_DOUBLE);
+        sColumnTypes.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, TYPE_DOUBLE);
+        sColumnTypes.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, TYPE_DOUBLE);
+        sColumnTypes.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, TYPE_DOUBLE);
+        sColumnTypes.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, TYPE_STRING);
+        sColumnTypes.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, TYPE_STRING);
+        sColumnTypes.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, TYPE_DOUBLE);
+        sColumnTypes.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, TYPE_DOUBLE);
+    }
+
+    private final String[] mColumnNames;
+    private final int[] mTypes;
+    private final int mCount;
+    // Only the array matching the type of a column is set, the others are null
+    private final long[][] mLongs;
+    private final double[][] mDoubles;
+    private final String[][] mStrings;
+
+    private ForecastCursor(String[] columnNames, int[] types, int count) {
+        int columnCount = columnNames.length;
+        mColumnNames = columnNames;
+        mTypes = types;
+        mCount = count;
+        mLongs = new long[columnCount][];
+        mDoubles = new double[columnCount][];
+        mStrings = new String[columnCount][];
+        for (int i = 0; i < columnCount; i++) {
+            switch (types[i]) {
+                case TYPE_LONG:
+                    mLongs[i] = new long[count];
+                    break;
+                case TYPE_DOUBLE:
+                    mDoubles[i] = new double[count];
+                    break;
+                default:
+                    mStrings[i] = new String[count];
+            }
+        }
+    }
+
+    /**
+     * Copies all the rows of the source cursor in one pass.  The source is left open.
+     * @return the copy, or null if a column is not a forecast column or holds a null, in which
+     * case the caller should keep using the source
+     */
+    public static ForecastCursor copyOf(Cursor source) {
+        String[] columnNames = source.getColumnNames();
+        int columnCount = columnNames.length;
+        int[] types = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            Integer type = sColumnTypes.get(columnNames[i]);
+            if (type == null) {
+                return null;
+            }
+            types[i] = type;
+        }
+
+        ForecastCursor copy = new ForecastCursor(columnNames, types, source.getCount());
+        int row = 0;
+        for (boolean hasRow = source.moveToFirst(); hasRow; hasRow = source.moveToNext()) {
+            for (int i = 0; i < columnCount; i++) {
+                if (source.isNull(i)) {
+                    return null;
+                }
+                switch (types[i]) {
+                    case TYPE_LONG:
+                        copy.mLongs[i][row] = source.getLong(i);
+                        break;
+                    case TYPE_DOUBLE:
+                        copy.mDoubles[i][row] = source.getDouble(i);
+                        break;
+                    default:
+                        copy.mStrings[i][row] = source.getString(i);
+                }
+            }
+            row++;
+        }
+        return copy;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        switch (mTypes[column]) {
+            case TYPE_LONG:
+                return Long.toString(mLongs[column][mPos]);
+            case TYPE_DOUBLE:
+                return Double.toString(mDoubles[column][mPos]);
+            default:
+                return mStrings[column][mPos];
+        }
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        switch (mTypes[column]) {
+            case TYPE_LONG:
+                return mLongs[column][mPos];
+            case TYPE_DOUBLE:
+                return (long) mDoubles[column][mPos];
+            default:
+                return parseLong(mStrings[column][mPos]);
+        }
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        switch (mTypes[column]) {
+            case TYPE_DOUBLE:
+                return mDoubles[column][mPos];
+            case TYPE_LONG:
+                return mLongs[column][mPos];
+            default:
+                return parseDouble(mStrings[column][mPos]);
+        }
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mTypes[column] == TYPE_STRING && mStrings[column][mPos] == null;
+    }
+
+    @Override
+    public int getType(int column) {
+        switch (mTypes[column]) {
+            case TYPE_LONG:
+                return FIELD_TYPE_INTEGER;
+            case TYPE_DOUBLE:
+                return FIELD_TYPE_FLOAT;
+            default:
+                return FIELD_TYPE_STRING;
+        }
+    }
+
+    // Like SQLite, text that is not a number reads as 0
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException | NullPointerException e) {
+            return 0;
+        }
+    }
+}
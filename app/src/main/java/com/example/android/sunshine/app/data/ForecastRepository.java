@@ -0,0 +1,824 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Publishes the forecast of a location, from today on, as immutable snapshots.  Everyone
+ * looking at the same location shares one stream: a change of the provider causes one query,
+ * made on the repository's own thread, whatever the number of screens, widgets and services
+ * subscribed to it.
+ *
+ * Changes are signalled by {@link WeatherProvider} when it notifies them.  The provider is not
+ * exported, so every write goes through it in this process.  Changes arriving while a read is
+ * pending are folded into that read, and a subscriber slower than the stream is only handed the
+ * latest snapshot, never a backlog of them.
+ *
+ * A stream only holds the days its subscribers ask for: a list asks for a page of days and
+ * widens its {@link Window} as it is scrolled, which reads the next page with a keyset query.
+ * A change reads again as many days as are asked for.
+ *
+ * A stream lives while it has subscribers, then {@link #LINGER_MILLIS} more so the consumers a
+ * sync wakes one after the other share its read.  Once the last stream is gone, so is the thread.
+ */
+public class ForecastRepository {
+    private static final String LOG_TAG = ForecastRepository.class.getSimpleName();
+
+    // Wait folding the changes of one burst of writes, such as a sync, into one read
+    private static final long COALESCE_MILLIS = 100;
+    // Time a stream outlives its last subscriber
+    static final long LINGER_MILLIS = 10 * 1000;
+
+    static final String[] FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+    // these indices must match the projection
+    static final int COL_ID = 0;
+    static final int COL_DATE = 1;
+    static final int COL_WEATHER_ID = 2;
+    static final int COL_SHORT_DESC = 3;
+    static final int COL_MIN_TEMP = 4;
+    static final int COL_MAX_TEMP = 5;
+    static final int COL_HUMIDITY = 6;
+    static final int COL_PRESSURE = 7;
+    static final int COL_WIND_SPEED = 8;
+    static final int COL_DEGREES = 9;
+    static final int COL_COORD_LAT = 10;
+    static final int COL_COORD_LONG = 11;
+
+    private static ForecastRepository sInstance;
+
+    /**
+     * A day of the forecast.
+     */
+    public static final class Day {
+        // Row id, which changes each time the sync writes the day again, so it is not part of
+        // what equals compares
+        public final long id;
+        public final long date;
+        public final int weatherId;
+        public final String shortDesc;
+        public final double minTemp;
+        public final double maxTemp;
+        public final double humidity;
+        public final double pressure;
+        public final double windSpeed;
+        public final double degrees;
+
+        public Day(long id, long date, int weatherId, String shortDesc, double minTemp,
+                   double maxTemp, double humidity, double pressure, double windSpeed,
+                   double degrees) {
+            this.id = id;
+            this.date = date;
+            this.weatherId = weatherId;
+            this.shortDesc = shortDesc;
+            this.minTemp = minTemp;
+            this.maxTemp = maxTemp;
+            this.humidity = humidity;
+            this.pressure = pressure;
+            this.windSpeed = windSpeed;
+            this.degrees = degrees;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Day)) {
+                return false;
+            }
+            Day other = (Day) o;
+            return date == other.date
+                    && weatherId == other.weatherId
+                    && (shortDesc == null ? other.shortDesc == null : shortDesc.equals(other.shortDesc))
+                    && Double.compare(minTemp, other.minTemp) == 0
+                    && Double.compare(maxTemp, other.maxTemp) == 0
+                    && Double.compare(humidity, other.humidity) == 0
+                    && Double.compare(pressure, other.pressure) == 0
+                    && Double.compare(windSpeed, other.windSpeed) == 0
+                    && Double.compare(degrees, other.degrees) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (date ^ (date >>> 32));
+            result = 31 * result + weatherId;
+            result = 31 * result + (shortDesc == null ? 0 : shortDesc.hashCode());
+            long bits = Double.doubleToLongBits(minTemp) ^ Double.doubleToLongBits(maxTemp);
+            return 31 * result + (int) (bits ^ (bits >>> 32));
+        }
+    }
+
+    /**
+     * The forecast of a location, days ordered by date.  It may only be the first days of the
+     * forecast, see {@link #hasMore()}.
+     */
+    public static final class Forecast {
+        public final String locationSetting;
+        // Coordinates of the location, 0 when there is no day
+        public final double coordLat;
+        public final double coordLong;
+        private final List<Day> mDays;
+        private final boolean mHasMore;
+
+        Forecast(String locationSetting, double coordLat, double coordLong, List<Day> days,
+                 boolean hasMore) {
+            this.locationSetting = locationSetting;
+            this.coordLat = coordLat;
+            this.coordLong = coordLong;
+            mDays = Collections.unmodifiableList(days);
+            mHasMore = hasMore;
+        }
+
+        /**
+         * Builds a whole forecast from rows with the {@link #FORECAST_COLUMNS} projection.
+         */
+        static Forecast fromCursor(String locationSetting, Cursor cursor) {
+            return fromCursor(locationSetting, cursor, 0);
+        }
+
+        /**
+         * Builds a forecast from rows with the {@link #FORECAST_COLUMNS} projection, read with
+         * the given limit.
+         * @param limit the limit of the query, 0 if it had none
+         */
+        static Forecast fromCursor(String locationSetting, Cursor cursor, int limit) {
+            ArrayList<Day> days = new ArrayList<Day>(cursor.getCount());
+            double coordLat = 0;
+            double coordLong = 0;
+            for (boolean hasRow = cursor.moveToFirst(); hasRow; hasRow = cursor.moveToNext()) {
+                days.add(new Day(cursor.getLong(COL_ID),
+                        cursor.getLong(COL_DATE),
+                        cursor.getInt(COL_WEATHER_ID),
+                        cursor.getString(COL_SHORT_DESC),
+                        cursor.getDouble(COL_MIN_TEMP),
+                        cursor.getDouble(COL_MAX_TEMP),
+                        cursor.getDouble(COL_HUMIDITY),
+                        cursor.getDouble(COL_PRESSURE),
+                        cursor.getDouble(COL_WIND_SPEED),
+                        cursor.getDouble(COL_DEGREES)));
+                coordLat = cursor.getDouble(COL_COORD_LAT);
+                coordLong = cursor.getDouble(COL_COORD_LONG);
+            }
+            return new Forecast(locationSetting, coordLat, coordLong, days,
+                    limit > 0 && days.size() >= limit);
+        }
+
+        /**
+         * Returns this forecast followed by the days of the page read after its last one.
+         */
+        Forecast append(Forecast page) {
+            if (page.isEmpty()) {
+                return new Forecast(locationSetting, coordLat, coordLong, mDays, false);
+            }
+            ArrayList<Day> days = new ArrayList<Day>(mDays.size() + page.size());
+            days.addAll(mDays);
+            days.addAll(page.mDays);
+            return new Forecast(locationSetting, page.coordLat, page.coordLong, days,
+                    page.mHasMore);
+        }
+
+        /**
+         * Returns true if the days after the last one were left out, the forecast was read up
+         * to a number of rows.
+         */
+        public boolean hasMore() {
+            return mHasMore;
+        }
+
+        /**
+         * Returns true if the forecast holds its first rows days, or all of them for 0.
+         */
+        boolean covers(int rows) {
+            return !mHasMore || (rows > 0 && mDays.size() >= rows);
+        }
+
+        public List<Day> getDays() {
+            return mDays;
+        }
+
+        public int size() {
+            return mDays.size();
+        }
+
+        public boolean isEmpty() {
+            return mDays.isEmpty();
+        }
+
+        public Day get(int position) {
+            return mDays.get(position);
+        }
+
+        /**
+         * Returns the day of the date, or null if the forecast does not cover it.
+         */
+        public Day getDay(long date) {
+            long day = WeatherContract.normalizeDate(date);
+            int low = 0;
+            int high = mDays.size() - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                long middleDate = mDays.get(middle).date;
+                if (middleDate < day) {
+                    low = middle + 1;
+                } else if (middleDate > day) {
+                    high = middle - 1;
+                } else {
+                    return mDays.get(middle);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Forecast)) {
+                return false;
+            }
+            Forecast other = (Forecast) o;
+            return locationSetting.equals(other.locationSetting)
+                    && Double.compare(coordLat, other.coordLat) == 0
+                    && Double.compare(coordLong, other.coordLong) == 0
+                    && mHasMore == other.mHasMore
+                    && mDays.equals(other.mDays);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * locationSetting.hashCode() + mDays.hashCode();
+        }
+    }
+
+    public interface ForecastObserver {
+        /**
+         * Called with the forecast when subscribing, then each time it changes.
+         */
+        void onForecastChanged(Forecast forecast);
+    }
+
+    public interface DayObserver {
+        /**
+         * Called with the day when subscribing, then each time it changes.
+         * @param day the day, null while the forecast does not cover it
+         */
+        void onDayChanged(Day day);
+    }
+
+    public interface Subscription {
+        /**
+         * Stops the deliveries, none is made once this returns if called on the thread they
+         * are made on.
+         */
+        void unsubscribe();
+    }
+
+    /**
+     * A subscription to the first days of a forecast, which can be widened as they are shown.
+     */
+    public interface Window extends Subscription {
+        /**
+         * Asks for the first rows days of the forecast, or all of it for 0.  Widening the
+         * window only reads the days after the ones already read.
+         */
+        void setRows(int rows);
+    }
+
+    private final Context mContext;
+    private final Object mLock = new Object();
+    private final HashMap<String, Stream> mStreams = new HashMap<String, Stream>();
+    // Bumped by each change of the weather or location tables
+    private int mGeneration;
+    private int mReadCount;
+    long mLingerMillis = LINGER_MILLIS;
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    private ForecastRepository(Context context) {
+        mContext = context;
+    }
+
+    public static synchronized ForecastRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Called by the provider for each uri it notifies.
+     */
+    static void onProviderChange(Uri uri) {
+        ForecastRepository repository;
+        synchronized (ForecastRepository.class) {
+            repository = sInstance;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (repository != null && !segments.isEmpty()
+                && (WeatherContract.PATH_WEATHER.equals(segments.get(0))
+                || WeatherContract.PATH_LOCATION.equals(segments.get(0)))) {
+            repository.onForecastChanged();
+        }
+    }
+
+    /**
+     * Delivers the whole forecast of the location on the main thread, now and after each
+     * change.
+     */
+    public Subscription subscribe(String locationSetting, ForecastObserver observer) {
+        return subscribe(locationSetting, 0, observer);
+    }
+
+    /**
+     * Delivers the whole forecast of the location on the thread of the handler, now and after
+     * each change.
+     */
+    public Subscription subscribe(String locationSetting, ForecastObserver observer,
+                                  Handler handler) {
+        return subscribe(locationSetting, 0, observer, handler);
+    }
+
+    /**
+     * Delivers the first days of the forecast of the location on the main thread, now and after
+     * each change.  The forecast delivered holds at least rows days when there are as many, it
+     * may hold more when others subscribed to more of it.
+     * @param rows the number of days, 0 for the whole forecast
+     */
+    public Window subscribe(String locationSetting, int rows, ForecastObserver observer) {
+        return subscribe(locationSetting, rows, observer, new Handler(Looper.getMainLooper()));
+    }
+
+    /**
+     * Delivers the first days of the forecast of the location on the thread of the handler, now
+     * and after each change.
+     * @param rows the number of days, 0 for the whole forecast
+     */
+    public Window subscribe(String locationSetting, int rows, final ForecastObserver observer,
+                            Handler handler) {
+        return subscribe(locationSetting, new Delivery(handler, rows) {
+            @Override
+            void deliver(Forecast forecast) {
+                observer.onForecastChanged(forecast);
+            }
+        });
+    }
+
+    /**
+     * Delivers a day of the forecast of the location on the main thread, now and each time
+     * that day changes.
+     */
+    public Subscription subscribe(String locationSetting, long date, DayObserver observer) {
+        return subscribe(locationSetting, date, observer, new Handler(Looper.getMainLooper()));
+    }
+
+    /**
+     * Delivers a day of the forecast of the location on the thread of the handler, now and
+     * each time that day changes.
+     */
+    public Subscription subscribe(String locationSetting, final long date,
+                                  final DayObserver observer, Handler handler) {
+        return subscribe(locationSetting, new Delivery(handler, rowsThrough(date)) {
+            private boolean mDelivered;
+            private Day mDay;
+
+            @Override
+            void deliver(Forecast forecast) {
+                Day day = forecast.getDay(date);
+                if (mDelivered && (day == null ? mDay == null : day.equals(mDay))) {
+                    return;
+                }
+                mDelivered = true;
+                mDay = day;
+                observer.onDayChanged(day);
+            }
+        });
+    }
+
+    /**
+     * Returns the whole forecast of the location as of now, shared with the subscribers of the
+     * location and with the callers of the next {@link #LINGER_MILLIS}.  Blocks while reading,
+     * not to be called from the UI thread.
+     * @return the forecast, or null if the provider could not be read
+     */
+    public Forecast getForecast(String locationSetting) {
+        return getForecast(locationSetting, 0);
+    }
+
+    /**
+     * Returns the first days of the forecast of the location as of now, like
+     * {@link #getForecast(String)}.
+     * @param rows the number of days needed, 0 for the whole forecast
+     * @return the forecast, holding at least rows days when there are as many, or null if the
+     * provider could not be read
+     */
+    public Forecast getForecast(String locationSetting, int rows) {
+        synchronized (mLock) {
+            Stream stream = acquire(locationSetting);
+            if (Looper.myLooper() == mThread.getLooper()) {
+                throw new IllegalStateException("Cannot wait for a read on the read thread");
+            }
+            stream.addWaiter(rows);
+            try {
+                while (!stream.isCurrent(rows)) {
+                    int attempts = stream.mAttempts;
+                    stream.scheduleRead(0);
+                    do {
+                        mLock.wait();
+                    } while (stream.mAttempts == attempts);
+                    if (stream.mLastReadFailed) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                stream.removeWaiter(rows);
+                releaseIfUnused(stream);
+            }
+            return stream.mForecast;
+        }
+    }
+
+    /**
+     * Returns the number of reads made so far, for tests.
+     */
+    int getReadCount() {
+        synchronized (mLock) {
+            return mReadCount;
+        }
+    }
+
+    /**
+     * Returns true if the stream of the location has read every change and has no read
+     * scheduled, so it hands out nothing more until the next change, for tests.
+     */
+    boolean isSettled(String locationSetting) {
+        synchronized (mLock) {
+            Stream stream = mStreams.get(locationSetting);
+            return stream != null && !stream.mReadScheduled && stream.isCurrent(stream.getRows());
+        }
+    }
+
+    /**
+     * Returns true while the location has a stream, for tests.
+     */
+    boolean hasStream(String locationSetting) {
+        synchronized (mLock) {
+            return mStreams.containsKey(locationSetting);
+        }
+    }
+
+    /**
+     * Returns the number of days of the forecast from today on up to the date, the date
+     * included.  There is at most one row per day, so as many rows hold the date.
+     */
+    static int rowsThrough(long date) {
+        return Math.max(1,
+                DayIndex.julianDay(date) - DayIndex.julianDay(System.currentTimeMillis()) + 1);
+    }
+
+    private Window subscribe(String locationSetting, Delivery delivery) {
+        synchronized (mLock) {
+            Stream stream = acquire(locationSetting);
+            delivery.mStream = stream;
+            stream.mSubscribers.add(delivery);
+            if (stream.mForecast != null) {
+                // a newer or a longer one follows if this one does not do
+                delivery.offer(stream.mForecast);
+            }
+            if (!stream.isCurrent(stream.getRows())) {
+                stream.scheduleRead(0);
+            }
+        }
+        return delivery;
+    }
+
+    private void onForecastChanged() {
+        synchronized (mLock) {
+            mGeneration++;
+            // streams without subscribers are read again only if someone asks for them
+            for (Stream stream : mStreams.values()) {
+                if (!stream.mSubscribers.isEmpty()) {
+                    stream.scheduleRead(COALESCE_MILLIS);
+                }
+            }
+        }
+    }
+
+    // Called holding mLock
+    private Stream acquire(String locationSetting) {
+        if (mThread == null) {
+            mThread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+        }
+        Stream stream = mStreams.get(locationSetting);
+        if (stream == null) {
+            stream = new Stream(locationSetting);
+            mStreams.put(locationSetting, stream);
+        } else {
+            mHandler.removeCallbacks(stream.mRelease);
+        }
+        return stream;
+    }
+
+    // Called holding mLock
+    private void releaseIfUnused(Stream stream) {
+        if (stream.mSubscribers.isEmpty() && stream.mWaiters == 0
+                && mStreams.get(stream.mLocation) == stream) {
+            mHandler.removeCallbacks(stream.mRelease);
+            mHandler.postDelayed(stream.mRelease, mLingerMillis);
+        }
+    }
+
+    /**
+     * Reads the first rows days of the forecast of the location, or all of it for 0.
+     */
+    private Forecast read(String locationSetting, int rows) {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+        if (rows > 0) {
+            weatherUri = WeatherContract.WeatherEntry.buildFirstPage(weatherUri, rows);
+        }
+        return read(locationSetting, weatherUri, rows);
+    }
+
+    /**
+     * Reads the days following the last one of the forecast, up to rows days in all, and
+     * returns the forecast they extend.
+     */
+    private Forecast readMore(Forecast forecast, int rows) {
+        int limit = rows > 0 ? rows - forecast.size() : 0;
+        Uri pageUri = WeatherContract.WeatherEntry.buildPage(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        forecast.locationSetting, System.currentTimeMillis()),
+                forecast.get(forecast.size() - 1).date, limit);
+        Forecast page = read(forecast.locationSetting, pageUri, limit);
+        return page == null ? null : forecast.append(page);
+    }
+
+    private Forecast read(String locationSetting, Uri weatherUri, int limit) {
+        Cursor cursor = mContext.getContentResolver().query(weatherUri, FORECAST_COLUMNS,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            Log.w(LOG_TAG, "Provider unavailable, could not read " + locationSetting);
+            return null;
+        }
+        try {
+            return Forecast.fromCursor(locationSetting, cursor, limit);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The forecast of a location and the subscribers to it.  Its fields are guarded by mLock.
+     */
+    private class Stream implements Runnable {
+        final String mLocation;
+        final ArrayList<Delivery> mSubscribers = new ArrayList<Delivery>();
+        // Callers of getForecast waiting for the stream, those of them waiting for the whole
+        // forecast, and the most days the others wait for
+        int mWaiters;
+        int mWholeWaiters;
+        int mWaiterRows;
+        // Last forecast read, null before the first read
+        Forecast mForecast;
+        // Generation of the last read, -1 before the first
+        int mReadGeneration = -1;
+        boolean mReadScheduled;
+        // Reads attempted, and whether the last one failed
+        int mAttempts;
+        boolean mLastReadFailed;
+
+        final Runnable mRelease = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mLock) {
+                    if (!mSubscribers.isEmpty() || mWaiters > 0
+                            || mStreams.get(mLocation) != Stream.this) {
+                        return;
+                    }
+                    mStreams.remove(mLocation);
+                    mHandler.removeCallbacks(Stream.this);
+                    if (mStreams.isEmpty()) {
+                        mThread.quit();
+                        mThread = null;
+                        mHandler = null;
+                    }
+                }
+            }
+        };
+
+        Stream(String location) {
+            mLocation = location;
+        }
+
+        void addWaiter(int rows) {
+            mWaiters++;
+            if (rows == 0) {
+                mWholeWaiters++;
+            } else {
+                mWaiterRows = Math.max(mWaiterRows, rows);
+            }
+        }
+
+        void removeWaiter(int rows) {
+            mWaiters--;
+            if (rows == 0) {
+                mWholeWaiters--;
+            }
+            if (mWaiters == 0) {
+                mWaiterRows = 0;
+            }
+        }
+
+        /**
+         * Returns the number of days the subscribers and the waiters need, 0 for all of them.
+         */
+        int getRows() {
+            if (mWholeWaiters > 0) {
+                return 0;
+            }
+            int rows = mWaiterRows;
+            for (Delivery delivery : mSubscribers) {
+                if (delivery.mRows == 0) {
+                    return 0;
+                }
+                rows = Math.max(rows, delivery.mRows);
+            }
+            return rows;
+        }
+
+        /**
+         * Returns true if the last forecast read is up to date and holds the first rows days.
+         */
+        boolean isCurrent(int rows) {
+            return mReadGeneration == mGeneration && mForecast != null && mForecast.covers(rows);
+        }
+
+        void scheduleRead(long delayMillis) {
+            if (!mReadScheduled) {
+                mReadScheduled = true;
+                mHandler.postDelayed(this, delayMillis);
+            }
+        }
+
+        /**
+         * Reads the forecast on the repository thread and hands it to the subscribers if it
+         * changed.  A forecast still up to date is only extended with the days it lacks.
+         */
+        @Override
+        public void run() {
+            int generation;
+            int rows;
+            Forecast current;
+            synchronized (mLock) {
+                mReadScheduled = false;
+                rows = getRows();
+                if (mStreams.get(mLocation) != this || isCurrent(rows)) {
+                    return;
+                }
+                generation = mGeneration;
+                current = mReadGeneration == mGeneration ? mForecast : null;
+            }
+            // changes made from here on schedule another read
+            Forecast forecast = current != null ? readMore(current, rows) : read(mLocation, rows);
+            synchronized (mLock) {
+                mReadCount++;
+                mAttempts++;
+                mLastReadFailed = forecast == null;
+                if (forecast != null) {
+                    mReadGeneration = generation;
+                    if (!forecast.equals(mForecast)) {
+                        mForecast = forecast;
+                        for (Delivery delivery : mSubscribers) {
+                            delivery.offer(forecast);
+                        }
+                    }
+                    // a subscriber may have asked for more days during the read
+                    if (!mSubscribers.isEmpty() && !isCurrent(getRows())) {
+                        scheduleRead(0);
+                    }
+                }
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Hands the forecasts of a stream to a subscriber on its thread.  At most one delivery is
+     * queued at a time: a forecast offered while one is queued replaces it.
+     */
+    private abstract class Delivery implements Runnable, Window {
+        private final Handler mTarget;
+        Stream mStream;
+        // Days of the forecast the subscriber needs, 0 for all, guarded by mLock
+        int mRows;
+        // Guarded by this
+        private Forecast mPending;
+        private boolean mPosted;
+        private boolean mActive = true;
+
+        Delivery(Handler handler, int rows) {
+            mTarget = handler;
+            mRows = rows;
+        }
+
+        abstract void deliver(Forecast forecast);
+
+        void offer(Forecast forecast) {
+            synchronized (this) {
+                mPending = forecast;
+                if (mPosted || !mActive) {
+                    return;
+                }
+                mPosted = true;
+            }
+            mTarget.post(this);
+        }
+
+        @Override
+        public void run() {
+            Forecast forecast;
+            synchronized (this) {
+                forecast = mPending;
+                mPending = null;
+                mPosted = false;
+                if (!mActive) {
+                    return;
+                }
+            }
+            deliver(forecast);
+        }
+
+        @Override
+        public void setRows(int rows) {
+            synchronized (mLock) {
+                if (!mStream.mSubscribers.contains(this) || rows == mRows) {
+                    return;
+                }
+                mRows = rows;
+                if (!mStream.isCurrent(mStream.getRows())) {
+                    mStream.scheduleRead(0);
+                }
+            }
+        }
+
+        @Override
+        public void unsubscribe() {
+            synchronized (this) {
+                if (!mActive) {
+                    return;
+                }
+                mActive = false;
+                mPending = null;
+            }
+            mTarget.removeCallbacks(this);
+            synchronized (mLock) {
+                mStream.mSubscribers.remove(this);
+                releaseIfUnused(mStream);
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.AccuracyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.DriftEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Every forecast issued for a day, kept as it changes.  Storing a weather row over the previous
+ * forecast of its day records a version holding only the differences: the scaled measures as
+ * deltas, the condition when it changed, nothing at all if the forecast did not move.  The first
+ * forecast of a day is a base version with the full values.
+ *
+ * The {@link DriftEntry#TABLE_NAME} view adds the deltas back up into the forecast each version
+ * stood for, and {@link AccuracyEntry#TABLE_NAME} compares them, by how many days ahead they were
+ * issued, with the final forecast of the days already in the history.
+ */
+class ForecastVersions {
+
+    static final String VERSION_TABLE = "forecast_version";
+
+    // 1 for a version with full values, from which the following deltas add up
+    private static final String COLUMN_BASE = "base";
+
+    // Measures kept, as deltas of the scaled values of the weather rows
+    private static final String[] DELTA_COLUMNS = {
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String[] CURRENT_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private ForecastVersions() {
+    }
+
+    static void createTables(SQLiteDatabase db) {
+        StringBuilder table = new StringBuilder("CREATE TABLE " + VERSION_TABLE + " (" +
+                DriftEntry._ID + " INTEGER PRIMARY KEY, " +
+                DriftEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                DriftEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                DriftEntry.COLUMN_ISSUED + " INTEGER NOT NULL, " +
+                DriftEntry.COLUMN_LEAD_DAYS + " INTEGER NOT NULL, " +
+                COLUMN_BASE + " INTEGER NOT NULL, " +
+                // null when the condition did not change
+                DriftEntry.COLUMN_WEATHER_ID + " INTEGER");
+        for (String column : DELTA_COLUMNS) {
+            // null when the measure did not change
+            table.append(", ").append(column).append(" INTEGER");
+        }
+        db.execSQL(table.append(");").toString());
+        db.execSQL("CREATE INDEX " + VERSION_TABLE + "_day ON " + VERSION_TABLE + " (" +
+                DriftEntry.COLUMN_LOC_KEY + ", " + DriftEntry.COLUMN_DATE + ");");
+
+        // Versions of the same day up to this one, from its latest base on
+        String fromBase = sameDayUpTo("p") + " AND p." + DriftEntry._ID + " >= (SELECT MAX(b." +
+                DriftEntry._ID + ")" + sameDayUpTo("b") + " AND b." + COLUMN_BASE + " = 1)";
+
+        StringBuilder drift = new StringBuilder("CREATE VIEW " + DriftEntry.TABLE_NAME +
+                " AS SELECT v." + DriftEntry._ID + " AS " + DriftEntry._ID +
+                ", v." + DriftEntry.COLUMN_LOC_KEY + " AS " + DriftEntry.COLUMN_LOC_KEY +
+                ", v." + DriftEntry.COLUMN_DATE + " AS " + DriftEntry.COLUMN_DATE +
+                ", v." + DriftEntry.COLUMN_ISSUED + " AS " + DriftEntry.COLUMN_ISSUED +
+                ", v." + DriftEntry.COLUMN_LEAD_DAYS + " AS " + DriftEntry.COLUMN_LEAD_DAYS +
+                ", (SELECT p." + DriftEntry.COLUMN_WEATHER_ID + fromBase + " AND p." +
+                DriftEntry.COLUMN_WEATHER_ID + " IS NOT NULL ORDER BY p." + DriftEntry._ID +
+                " DESC LIMIT 1) AS " + DriftEntry.COLUMN_WEATHER_ID);
+        for (String column : DELTA_COLUMNS) {
+            drift.append(", (SELECT SUM(p.").append(column).append(")").append(fromBase)
+                    .append(") / ").append(WeatherStorage.SCALE).append(".0 AS ").append(column);
+        }
+        drift.append(" FROM ").append(VERSION_TABLE).append(" v;");
+        db.execSQL(drift.toString());
+
+        // The history holds the final forecast of each past day
+        db.execSQL("CREATE VIEW " + AccuracyEntry.TABLE_NAME + " AS SELECT " +
+                "d." + AccuracyEntry.COLUMN_LOC_KEY + " AS " + AccuracyEntry.COLUMN_LOC_KEY + ", " +
+                "d." + AccuracyEntry.COLUMN_LEAD_DAYS + " AS " + AccuracyEntry.COLUMN_LEAD_DAYS + ", " +
+                "d." + AccuracyEntry.COLUMN_LEAD_DAYS + " AS " + AccuracyEntry._ID + ", " +
+                "COUNT(*) AS " + AccuracyEntry.COLUMN_VERSIONS + ", " +
+                "AVG(ABS(d." + WeatherEntry.COLUMN_MAX_TEMP + " - h." + WeatherEntry.COLUMN_MAX_TEMP +
+                " / " + WeatherStorage.SCALE + ".0)) AS " + AccuracyEntry.COLUMN_MAX_TEMP_ERROR + ", " +
+                "AVG(ABS(d." + WeatherEntry.COLUMN_MIN_TEMP + " - h." + WeatherEntry.COLUMN_MIN_TEMP +
+                " / " + WeatherStorage.SCALE + ".0)) AS " + AccuracyEntry.COLUMN_MIN_TEMP_ERROR + ", " +
+                "AVG(d." + WeatherEntry.COLUMN_WEATHER_ID + " = h." + WeatherEntry.COLUMN_WEATHER_ID +
+                ") AS " + AccuracyEntry.COLUMN_CONDITION_HITS +
+                " FROM " + DriftEntry.TABLE_NAME + " d JOIN " + WeatherArchive.HISTORY_TABLE +
+                " h ON h." + WeatherEntry.COLUMN_LOC_KEY + " = d." + DriftEntry.COLUMN_LOC_KEY +
+                " AND h." + WeatherEntry.COLUMN_DATE + " = d." + DriftEntry.COLUMN_DATE +
+                " GROUP BY d." + AccuracyEntry.COLUMN_LOC_KEY + ", d." + AccuracyEntry.COLUMN_LEAD_DAYS +
+                ";");
+    }
+
+    /**
+     * Returns the clause selecting, under the given alias, the versions of the day of the version
+     * v up to it.
+     */
+    private static String sameDayUpTo(String alias) {
+        return " FROM " + VERSION_TABLE + " " + alias + " WHERE " +
+                alias + "." + DriftEntry.COLUMN_LOC_KEY + " = v." + DriftEntry.COLUMN_LOC_KEY +
+                " AND " + alias + "." + DriftEntry.COLUMN_DATE + " = v." + DriftEntry.COLUMN_DATE +
+                " AND " + alias + "." + DriftEntry._ID + " <= v." + DriftEntry._ID;
+    }
+
+    /**
+     * Returns the stored weather row of the day of a new row, scaled, or null if there is none.
+     */
+    static ContentValues getCurrent(SQLiteDatabase db, ContentValues row) {
+        Long locationId = row.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        Long date = row.getAsLong(WeatherEntry.COLUMN_DATE);
+        if (locationId == null || date == null) {
+            return null;
+        }
+        List<ContentValues> current = getCurrent(db,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{locationId.toString(), date.toString()});
+        return current.isEmpty() ? null : current.get(0);
+    }
+
+    /**
+     * Returns the stored weather rows matching a selection on the data table, scaled.
+     */
+    static List<ContentValues> getCurrent(SQLiteDatabase db, String selection,
+                                          String[] selectionArgs) {
+        List<ContentValues> rows = new ArrayList<ContentValues>();
+        Cursor cursor = db.query(WeatherStorage.DATA_TABLE, CURRENT_COLUMNS, selection,
+                selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ContentValues current = new ContentValues();
+                for (int i = 0; i < CURRENT_COLUMNS.length; i++) {
+                    current.put(CURRENT_COLUMNS[i], cursor.getLong(i));
+                }
+                rows.add(current);
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Records the version a stored row stands for.
+     * @param row the scaled row just stored
+     * @param previous the scaled row it replaced, null if it is the first of its day
+     * @param issued when the forecast was issued, received for a sync or a push
+     */
+    static void record(SQLiteDatabase db, ContentValues row, ContentValues previous, long issued) {
+        long date = row.getAsLong(WeatherEntry.COLUMN_DATE);
+        ContentValues version = new ContentValues();
+        boolean changed = previous == null;
+        Long weatherId = row.getAsLong(WeatherEntry.COLUMN_WEATHER_ID);
+        if (previous == null || !weatherId.equals(previous.getAsLong(WeatherEntry.COLUMN_WEATHER_ID))) {
+            version.put(DriftEntry.COLUMN_WEATHER_ID, weatherId);
+            changed = true;
+        }
+        for (String column : DELTA_COLUMNS) {
+            long value = row.getAsLong(column);
+            long delta = previous == null ? value : value - previous.getAsLong(column);
+            if (previous == null || delta != 0) {
+                version.put(column, delta);
+                changed = true;
+            }
+        }
+        if (!changed) {
+            // the forecast for the day did not move
+            return;
+        }
+        version.put(DriftEntry.COLUMN_LOC_KEY, row.getAsLong(WeatherEntry.COLUMN_LOC_KEY));
+        version.put(DriftEntry.COLUMN_DATE, date);
+        version.put(DriftEntry.COLUMN_ISSUED, issued);
+        version.put(DriftEntry.COLUMN_LEAD_DAYS, DayIndex.julianDay(date) - DayIndex.julianDay(issued));
+        version.put(COLUMN_BASE, previous == null ? 1 : 0);
+        db.insert(VERSION_TABLE, null, version);
+    }
+
+    /**
+     * Drops the versions of the days before the given date.
+     */
+    static void deleteBefore(SQLiteDatabase db, long date) {
+        db.delete(VERSION_TABLE, DriftEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(date)});
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The forecast rows last shown by the main list, kept in a small file so the next cold start can
+ * draw them before SQLite is even opened.  The file holds the location, the column names and the
+ * cell values; it is only used when they still match what the list asks for.
+ */
+public class LastForecastCache {
+    private static final String LOG_TAG = LastForecastCache.class.getSimpleName();
+
+    static final String FILE_NAME = "last_forecast.bin";
+    private static final int MAGIC = 0x53554e4c;  // "SUNL"
+    private static final int VERSION = 1;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_LONG = 1;
+    private static final byte TYPE_DOUBLE = 2;
+    private static final byte TYPE_STRING = 3;
+
+    // Saves the forecasts handed to save(), one after the other
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+    // Guards the temporary file and the rename, held through the disk I/O
+    private static final Object sFileLock = new Object();
+    // Guards the fields below, never held through the disk I/O
+    private static final Object sLock = new Object();
+    // The forecast waiting to be saved, only the latest one is
+    private static ForecastRepository.Forecast sPending;
+    // The forecast last saved, not written again
+    private static ForecastRepository.Forecast sSaved;
+
+    private LastForecastCache() {
+    }
+
+    /**
+     * A copy of the rows of a cursor, taken on the UI thread so the file can be written later on
+     * a background thread.  A forecast does not change, its copy is taken by {@link #save}.
+     */
+    public static class Snapshot {
+        final String mLocation;
+        final String[] mColumns;
+        final Object[][] mRows;
+
+        private Snapshot(String location, String[] columns, Object[][] rows) {
+            mLocation = location;
+            mColumns = columns;
+            mRows = rows;
+        }
+    }
+
+    /**
+     * Copies every row of the cursor.  The cursor position is left after the last row.
+     * @return the copy, or null before Honeycomb where cursors cannot tell the type of a cell
+     */
+    public static Snapshot snapshot(String location, Cursor cursor) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return null;
+        }
+        return snapshotCells(location, cursor);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Snapshot snapshotCells(String location, Cursor cursor) {
+        String[] columns = cursor.getColumnNames();
+        Object[][] rows = new Object[cursor.getCount()][];
+        int row = 0;
+        for (boolean hasRow = cursor.moveToFirst(); hasRow; hasRow = cursor.moveToNext()) {
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        values[i] = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        values[i] = cursor.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_NULL:
+                        values[i] = null;
+                        break;
+                    default:
+                        values[i] = cursor.getString(i);
+                }
+            }
+            rows[row++] = values;
+        }
+        return new Snapshot(location, columns, rows);
+    }
+
+    /**
+     * Copies the days of a forecast, in the columns of {@link ForecastRepository#FORECAST_COLUMNS}.
+     */
+    public static Snapshot snapshot(ForecastRepository.Forecast forecast) {
+        String[] columns = new String[ForecastRepository.FORECAST_COLUMNS.length];
+        for (int i = 0; i < columns.length; i++) {
+            String column = ForecastRepository.FORECAST_COLUMNS[i];
+            columns[i] = column.substring(column.lastIndexOf('.') + 1);
+        }
+        Object[][] rows = new Object[forecast.size()][];
+        for (int row = 0; row < rows.length; row++) {
+            ForecastRepository.Day day = forecast.get(row);
+            Object[] values = new Object[columns.length];
+            values[ForecastRepository.COL_ID] = day.id;
+            values[ForecastRepository.COL_DATE] = day.date;
+            values[ForecastRepository.COL_WEATHER_ID] = (long) day.weatherId;
+            values[ForecastRepository.COL_SHORT_DESC] = day.shortDesc;
+            values[ForecastRepository.COL_MIN_TEMP] = day.minTemp;
+            values[ForecastRepository.COL_MAX_TEMP] = day.maxTemp;
+            values[ForecastRepository.COL_HUMIDITY] = day.humidity;
+            values[ForecastRepository.COL_PRESSURE] = day.pressure;
+            values[ForecastRepository.COL_WIND_SPEED] = day.windSpeed;
+            values[ForecastRepository.COL_DEGREES] = day.degrees;
+            values[ForecastRepository.COL_COORD_LAT] = forecast.coordLat;
+            values[ForecastRepository.COL_COORD_LONG] = forecast.coordLong;
+            rows[row] = values;
+        }
+        return new Snapshot(forecast.locationSetting, columns, rows);
+    }
+
+    /**
+     * Saves the days of the forecast for the next cold start, or deletes the file if there are
+     * none.  Returns at once: the copy and the write are done on a background thread, one save
+     * after the other.  A forecast handed before the previous one was saved replaces it.
+     */
+    public static void save(Context context, ForecastRepository.Forecast forecast) {
+        final Context appContext = context.getApplicationContext();
+        synchronized (sLock) {
+            boolean queued = sPending != null;
+            sPending = forecast;
+            if (queued) {
+                return;
+            }
+        }
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ForecastRepository.Forecast forecast;
+                synchronized (sLock) {
+                    forecast = sPending;
+                    sPending = null;
+                    if (forecast.equals(sSaved)) {
+                        return;
+                    }
+                    sSaved = forecast;
+                }
+                if (forecast.isEmpty()) {
+                    clear(appContext);
+                } else {
+                    write(appContext, snapshot(forecast));
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the snapshot, replacing the previous file only once the new one is complete.
+     * Does disk I/O, not to be called from the UI thread.  Writers are serialized, so they never
+     * share the temporary file.
+     */
+    public static void write(Context context, Snapshot snapshot) {
+        synchronized (sFileLock) {
+            writeLocked(context, snapshot);
+        }
+    }
+
+    private static void writeLocked(Context context, Snapshot snapshot) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        File temp = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(snapshot.mLocation);
+            out.writeInt(snapshot.mColumns.length);
+            for (String column : snapshot.mColumns) {
+                out.writeUTF(column);
+            }
+            out.writeInt(snapshot.mRows.length);
+            for (Object[] row : snapshot.mRows) {
+                for (Object value : row) {
+                    if (value == null) {
+                        out.writeByte(TYPE_NULL);
+                    } else if (value instanceof Long) {
+                        out.writeByte(TYPE_LONG);
+                        out.writeLong((Long) value);
+                    } else if (value instanceof Double) {
+                        out.writeByte(TYPE_DOUBLE);
+                        out.writeDouble((Double) value);
+                    } else {
+                        out.writeByte(TYPE_STRING);
+                        out.writeUTF(value.toString());
+                    }
+                }
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                Log.w(LOG_TAG, "Could not replace " + file);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing the last forecast", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // nothing more to do
+                }
+            }
+            temp.delete();
+        }
+    }
+
+    /**
+     * Reads the rows last written for the location, with exactly the given columns.  The file
+     * is a few kilobytes, so this is cheap enough to be done while creating the first screen.
+     * @param notBefore rows dated before this normalized date are left out
+     * @return the rows, or null if there is no usable file
+     */
+    public static Cursor read(Context context, String location, String[] columns,
+                              long notBefore) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !in.readUTF().equals(location)) {
+                return null;
+            }
+            String[] fileColumns = new String[in.readInt()];
+            for (int i = 0; i < fileColumns.length; i++) {
+                fileColumns[i] = in.readUTF();
+            }
+            String[] expectedColumns = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                // the cursor names a qualified column like weather._id without its table
+                expectedColumns[i] = columns[i].substring(columns[i].lastIndexOf('.') + 1);
+            }
+            if (!Arrays.equals(fileColumns, expectedColumns)) {
+                return null;
+            }
+            int dateColumn = Arrays.asList(fileColumns).indexOf(
+                    WeatherContract.WeatherEntry.COLUMN_DATE);
+
+            int rowCount = in.readInt();
+            MatrixCursor cursor = new MatrixCursor(fileColumns, rowCount);
+            for (int row = 0; row < rowCount; row++) {
+                Object[] values = new Object[fileColumns.length];
+                for (int i = 0; i < values.length; i++) {
+                    switch (in.readByte()) {
+                        case TYPE_LONG:
+                            values[i] = in.readLong();
+                            break;
+                        case TYPE_DOUBLE:
+                            values[i] = in.readDouble();
+                            break;
+                        case TYPE_STRING:
+                            values[i] = in.readUTF();
+                            break;
+                        default:
+                            values[i] = null;
+                    }
+                }
+                if (dateColumn < 0 || !(values[dateColumn] instanceof Long)
+                        || (Long) values[dateColumn] >= notBefore) {
+                    cursor.addRow(values);
+                }
+            }
+            if (cursor.getCount() == 0) {
+                cursor.close();
+                return null;
+            }
+            return cursor;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable last forecast", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing more to do
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the forecast last written for the location by {@link #snapshot(ForecastRepository.Forecast)}.
+     * @param notBefore days dated before this normalized date are left out
+     * @return the forecast, or null if there is no usable file
+     */
+    public static ForecastRepository.Forecast readForecast(Context context, String location,
+                                                           long notBefore) {
+        Cursor cursor = read(context, location, ForecastRepository.FORECAST_COLUMNS, notBefore);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return ForecastRepository.Forecast.fromCursor(location, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Deletes the file, e.g. when the data it was taken from is gone.
+     */
+    public static void clear(Context context) {
+        synchronized (sFileLock) {
+            new File(context.getFilesDir(), FILE_NAME).delete();
+        }
+        synchronized (sLock) {
+            sSaved = null;
+        }
+    }
+}
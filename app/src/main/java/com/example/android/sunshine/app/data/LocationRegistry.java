@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Process-wide copy of the location table, mapping a location setting to its row and back.  The
+ * table holds a handful of rows, so it is read once and the forecast queries resolve their
+ * location here instead of joining it.
+ *
+ * {@link WeatherProvider} keeps it coherent: inserts are added, updates and deletes drop it to be
+ * read again.  Rows written to the database behind the provider's back are found on a miss,
+until that setting has missed once: misses are remembered until the provider writes a location.
+ *
+ * The entries are also indexed by latitude, so that a setting giving coordinates, a GPS fix,
+ * can be served the forecast of a location already stored nearby until its own is fetched.
+ */
+public class LocationRegistry {
+
+    private static final String[] LOCATION_COLUMNS = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // A setting of coordinates within this distance of a stored location is served its forecast
+    public static final double MATCH_RADIUS_KM = 10;
+
+    private static final double EARTH_RADIUS_KM = 6371.0;
+    private static final double KM_PER_DEGREE_OF_LATITUDE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    private static final Comparator<Entry> BY_LATITUDE = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            return Double.compare(lhs.coordLat, rhs.coordLat);
+        }
+    };
+
+    private static final LocationRegistry sInstance = new LocationRegistry();
+
+    /**
+     * A row of the location table.
+     */
+    public static class Entry {
+        public final long id;
+        public final String locationSetting;
+        public final String cityName;
+        public final double coordLat;
+        public final double coordLong;
+
+        public Entry(long id, String locationSetting, String cityName, double coordLat,
+                     double coordLong) {
+            this.id = id;
+            this.locationSetting = locationSetting;
+            this.cityName = cityName;
+            this.coordLat = coordLat;
+            this.coordLong = coordLong;
+        }
+
+        /**
+         * Returns true if the entry holds the given values, whatever its id.
+         */
+        public boolean sameAs(String cityName, double coordLat, double coordLong) {
+            return this.cityName.equals(cityName)
+                    && Double.compare(this.coordLat, coordLat) == 0
+                    && Double.compare(this.coordLong, coordLong) == 0;
+        }
+    }
+
+    private final HashMap<String, Entry> mBySetting = new HashMap<String, Entry>();
+    private final HashMap<Long, Entry> mById = new HashMap<Long, Entry>();
+    // Settings not found in the table, so a setting not fetched yet is not read again every query
+    private final HashSet<String> mMissingSettings = new HashSet<String>();
+    private boolean mLoaded;
+    // Every entry sorted by latitude, null until a nearest lookup needs it again
+    private Entry[] mByLatitude;
+
+    private LocationRegistry() {
+    }
+
+    public static LocationRegistry getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Returns the location with the given setting, or null if there is none.
+     * @param db database to read the location table from when it is not loaded yet
+     */
+    public synchronized Entry getBySetting(SQLiteDatabase db, String locationSetting) {
+        ensureLoaded(db);
+        Entry entry = mBySetting.get(locationSetting);
+        if (entry == null && !mMissingSettings.contains(locationSetting)) {
+            entry = loadOne(db, WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    locationSetting);
+            if (entry == null) {
+                mMissingSettings.add(locationSetting);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the location with the given row id, or null if there is none.
+     * @param db database to read the location table from when it is not loaded yet
+     */
+    public synchronized Entry getById(SQLiteDatabase db, long id) {
+        ensureLoaded(db);
+        Entry entry = mById.get(id);
+        if (entry == null) {
+            entry = loadOne(db, WeatherContract.LocationEntry._ID + " = ?", Long.toString(id));
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the stored location closest to the given coordinates within the radius, or null if
+     * there is none.
+     * @param db database to read the location table from when it is not loaded yet
+     */
+    public synchronized Entry getNearest(SQLiteDatabase db, double coordLat, double coordLong,
+                                         double radiusKm) {
+        ensureLoaded(db);
+        if (mByLatitude == null) {
+            mByLatitude = mById.values().toArray(new Entry[mById.size()]);
+            Arrays.sort(mByLatitude, BY_LATITUDE);
+        }
+        // only the band of latitudes within the radius can match, whatever the longitude
+        double band = radiusKm / KM_PER_DEGREE_OF_LATITUDE;
+        int low = 0;
+        int high = mByLatitude.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mByLatitude[mid].coordLat < coordLat - band) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        Entry nearest = null;
+        double nearestDistance = radiusKm;
+        for (int i = low; i < mByLatitude.length && mByLatitude[i].coordLat <= coordLat + band; i++) {
+            double distance = getDistanceKm(coordLat, coordLong,
+                    mByLatitude[i].coordLat, mByLatitude[i].coordLong);
+            if (distance <= nearestDistance) {
+                nearest = mByLatitude[i];
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Returns the great-circle distance between two points, from the haversine formula.
+     */
+    static double getDistanceKm(double lat1, double long1, double lat2, double long2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLong = Math.toRadians(long2 - long1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLong / 2) * Math.sin(dLong / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Returns the latitude and longitude of a location setting written as "lat,long", or null
+     * if it is a place name or a postal code.
+     */
+    public static double[] parseCoordinates(String locationSetting) {
+        int comma = locationSetting.indexOf(',');
+        if (comma == -1) {
+            return null;
+        }
+        try {
+            double coordLat = Double.parseDouble(locationSetting.substring(0, comma).trim());
+            double coordLong = Double.parseDouble(locationSetting.substring(comma + 1).trim());
+            if (Math.abs(coordLat) > 90 || Math.abs(coordLong) > 180) {
+                return null;
+            }
+            return new double[]{coordLat, coordLong};
+        } catch (NumberFormatException e) {
+            // "Paris, FR"
+            return null;
+        }
+    }
+
+    /**
+     * Records a row the provider just wrote.
+     */
+    synchronized void put(Entry entry) {
+        Entry previous = mBySetting.put(entry.locationSetting, entry);
+        if (previous != null && previous.id != entry.id) {
+            mById.remove(previous.id);
+        }
+        mById.put(entry.id, entry);
+        mByLatitude = null;
+        mMissingSettings.clear();
+    }
+
+    /**
+     * Forgets every location, the table is read again on the next lookup.
+     */
+    synchronized void invalidate() {
+        mBySetting.clear();
+        mById.clear();
+        mByLatitude = null;
+        mMissingSettings.clear();
+        mLoaded = false;
+    }
+
+    private void ensureLoaded(SQLiteDatabase db) {
+        if (mLoaded) {
+            return;
+        }
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME, LOCATION_COLUMNS,
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                put(fromCursor(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        mLoaded = true;
+    }
+
+    private Entry loadOne(SQLiteDatabase db, String selection, String arg) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME, LOCATION_COLUMNS,
+                selection, new String[]{arg}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            Entry entry = fromCursor(cursor);
+            put(entry);
+            return entry;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Entry fromCursor(Cursor cursor) {
+        return new Entry(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                cursor.getDouble(3), cursor.getDouble(4));
+    }
+}
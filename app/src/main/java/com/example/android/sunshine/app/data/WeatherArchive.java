@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.AggregateEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * History of the forecast.  Past days are moved out of the weather rows into
+ * {@link #HISTORY_TABLE}, which has the same compact layout, and at that moment added to the
+ * daily, weekly and monthly aggregates of their location.  The aggregates are only ever updated
+ * by the days being archived, never recomputed from the history, so they outlive it: the
+ * history and the daily aggregates are dropped after the retention period, the weekly and
+ * monthly ones are kept.
+ */
+class WeatherArchive {
+
+    static final String HISTORY_TABLE = "history_data";
+    static final String AGGREGATE_TABLE = "aggregate_data";
+
+    // Sum of the daily (min + max), half of it over the days is the average daily mean
+    private static final String COLUMN_TEMP_SUM = "temp_sum";
+
+    // Columns of a compact row, in the order of the statement adding it to the history
+    private static final String[] ROW_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    private static final int COL_LOC_KEY = 0;
+    private static final int COL_DATE = 1;
+    private static final int COL_WEATHER_ID = 2;
+    private static final int COL_MIN_TEMP = 3;
+    private static final int COL_MAX_TEMP = 4;
+
+    private WeatherArchive() {
+    }
+
+    static void createTables(SQLiteDatabase db) {
+        WeatherStorage.createDataTable(db, HISTORY_TABLE);
+        WeatherStorage.createDataView(db, WeatherContract.HistoryEntry.TABLE_NAME, HISTORY_TABLE);
+
+        db.execSQL("CREATE TABLE " + AGGREGATE_TABLE + " (" +
+                AggregateEntry._ID + " INTEGER PRIMARY KEY, " +
+                AggregateEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                AggregateEntry.COLUMN_PERIOD + " INTEGER NOT NULL, " +
+                AggregateEntry.COLUMN_PERIOD_START + " INTEGER NOT NULL, " +
+                AggregateEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                // scaled like the weather rows
+                AggregateEntry.COLUMN_MIN_TEMP + " INTEGER NOT NULL, " +
+                AggregateEntry.COLUMN_MAX_TEMP + " INTEGER NOT NULL, " +
+                COLUMN_TEMP_SUM + " INTEGER NOT NULL, " +
+                AggregateEntry.COLUMN_PRECIPITATION_DAYS + " INTEGER NOT NULL, " +
+                " UNIQUE (" + AggregateEntry.COLUMN_LOC_KEY + ", " +
+                AggregateEntry.COLUMN_PERIOD + ", " +
+                AggregateEntry.COLUMN_PERIOD_START + "));");
+
+        db.execSQL("CREATE VIEW " + AggregateEntry.TABLE_NAME + " AS SELECT " +
+                AggregateEntry._ID + ", " +
+                AggregateEntry.COLUMN_LOC_KEY + ", " +
+                AggregateEntry.COLUMN_PERIOD + ", " +
+                AggregateEntry.COLUMN_PERIOD_START + ", " +
+                AggregateEntry.COLUMN_DAYS + ", " +
+                AggregateEntry.COLUMN_MIN_TEMP + " / " + WeatherStorage.SCALE + ".0 AS " +
+                AggregateEntry.COLUMN_MIN_TEMP + ", " +
+                AggregateEntry.COLUMN_MAX_TEMP + " / " + WeatherStorage.SCALE + ".0 AS " +
+                AggregateEntry.COLUMN_MAX_TEMP + ", " +
+                COLUMN_TEMP_SUM + " / (2.0 * " + WeatherStorage.SCALE + " * " +
+                AggregateEntry.COLUMN_DAYS + ") AS " + AggregateEntry.COLUMN_AVG_TEMP + ", " +
+                AggregateEntry.COLUMN_PRECIPITATION_DAYS +
+                " FROM " + AGGREGATE_TABLE + ";");
+    }
+
+    /**
+     * Moves the weather rows matching the selection, on the columns of {@link WeatherEntry}, to
+     * the history and adds them to the aggregates, then drops what is older than the retention,
+     * the versions of the forecast included.
+     * @param keepHistoryFrom date of the oldest day of history to keep, 0 to keep it all
+     * @return the number of weather rows removed
+     */
+    static int archive(SQLiteDatabase db, String selection, String[] selectionArgs,
+                       long keepHistoryFrom) {
+        String keySelection = WeatherStorage.toKeySelection(selection);
+        int removed;
+        db.beginTransaction();
+        try {
+            SQLiteStatement addToHistory = db.compileStatement("INSERT OR IGNORE INTO "
+                    + HISTORY_TABLE + " (" + join(ROW_COLUMNS) + ") VALUES ("
+                    + placeholders(ROW_COLUMNS.length) + ")");
+            SQLiteStatement createPeriod = db.compileStatement("INSERT OR IGNORE INTO "
+                    + AGGREGATE_TABLE + " (" + AggregateEntry.COLUMN_LOC_KEY + ", "
+                    + AggregateEntry.COLUMN_PERIOD + ", " + AggregateEntry.COLUMN_PERIOD_START + ", "
+                    + AggregateEntry.COLUMN_DAYS + ", " + AggregateEntry.COLUMN_MIN_TEMP + ", "
+                    + AggregateEntry.COLUMN_MAX_TEMP + ", " + COLUMN_TEMP_SUM + ", "
+                    + AggregateEntry.COLUMN_PRECIPITATION_DAYS + ") VALUES (?, ?, ?, 0, ?, ?, 0, 0)");
+            SQLiteStatement addToPeriod = db.compileStatement("UPDATE " + AGGREGATE_TABLE + " SET "
+                    + AggregateEntry.COLUMN_DAYS + " = " + AggregateEntry.COLUMN_DAYS + " + 1, "
+                    + AggregateEntry.COLUMN_MIN_TEMP + " = MIN(" + AggregateEntry.COLUMN_MIN_TEMP + ", ?), "
+                    + AggregateEntry.COLUMN_MAX_TEMP + " = MAX(" + AggregateEntry.COLUMN_MAX_TEMP + ", ?), "
+                    + COLUMN_TEMP_SUM + " = " + COLUMN_TEMP_SUM + " + ?, "
+                    + AggregateEntry.COLUMN_PRECIPITATION_DAYS + " = "
+                    + AggregateEntry.COLUMN_PRECIPITATION_DAYS + " + ? WHERE "
+                    + AggregateEntry.COLUMN_LOC_KEY + " = ? AND "
+                    + AggregateEntry.COLUMN_PERIOD + " = ? AND "
+                    + AggregateEntry.COLUMN_PERIOD_START + " = ?");
+            Cursor rows = db.query(WeatherStorage.DATA_TABLE, ROW_COLUMNS, keySelection,
+                    selectionArgs, null, null, null);
+            try {
+                while (rows.moveToNext()) {
+                    addToHistory.clearBindings();
+                    for (int i = 0; i < ROW_COLUMNS.length; i++) {
+                        addToHistory.bindLong(i + 1, rows.getLong(i));
+                    }
+                    if (addToHistory.executeInsert() == -1) {
+                        // the day is already in the history, and counted in the aggregates
+                        continue;
+                    }
+                    int julianDay = DayIndex.julianDay(rows.getLong(COL_DATE));
+                    long locationId = rows.getLong(COL_LOC_KEY);
+                    long min = rows.getLong(COL_MIN_TEMP);
+                    long max = rows.getLong(COL_MAX_TEMP);
+                    long precipitation = isPrecipitation(rows.getInt(COL_WEATHER_ID)) ? 1 : 0;
+                    int[] periods = {AggregateEntry.PERIOD_DAY, AggregateEntry.PERIOD_WEEK,
+                            AggregateEntry.PERIOD_MONTH};
+                    for (int period : periods) {
+                        long periodStart = DayIndex.startOfDay(getPeriodStart(period, julianDay));
+                        createPeriod.bindLong(1, locationId);
+                        createPeriod.bindLong(2, period);
+                        createPeriod.bindLong(3, periodStart);
+                        createPeriod.bindLong(4, min);
+                        createPeriod.bindLong(5, max);
+                        createPeriod.executeInsert();
+
+                        addToPeriod.bindLong(1, min);
+                        addToPeriod.bindLong(2, max);
+                        addToPeriod.bindLong(3, min + max);
+                        addToPeriod.bindLong(4, precipitation);
+                        addToPeriod.bindLong(5, locationId);
+                        addToPeriod.bindLong(6, period);
+                        addToPeriod.bindLong(7, periodStart);
+                        addToPeriod.execute();
+                    }
+                }
+            } finally {
+                rows.close();
+                addToHistory.close();
+                createPeriod.close();
+                addToPeriod.close();
+            }
+
+            removed = db.delete(WeatherStorage.DATA_TABLE, keySelection,
+                    keySelection == null ? null : selectionArgs);
+
+            if (keepHistoryFrom > 0) {
+                String[] keepFrom = {Long.toString(keepHistoryFrom)};
+                db.delete(HISTORY_TABLE, WeatherEntry.COLUMN_DATE + " < ?", keepFrom);
+                db.delete(AGGREGATE_TABLE, AggregateEntry.COLUMN_PERIOD + " = "
+                        + AggregateEntry.PERIOD_DAY + " AND "
+                        + AggregateEntry.COLUMN_PERIOD_START + " < ?", keepFrom);
+                // the versions are compared with the history, they go with it
+                ForecastVersions.deleteBefore(db, keepHistoryFrom);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the julian day the period of the given kind containing the day starts on.
+     */
+    static int getPeriodStart(int period, int julianDay) {
+        switch (period) {
+            case AggregateEntry.PERIOD_WEEK:
+                // julian day 0 is a Monday
+                return julianDay - julianDay % 7;
+            case AggregateEntry.PERIOD_MONTH:
+                return julianDay - (getDayOfMonth(julianDay) - 1);
+            default:
+                return julianDay;
+        }
+    }
+
+    /**
+     * Returns the day of the month of a julian day in the Gregorian calendar, from the
+     * conversion of Fliegel and Van Flandern.
+     */
+    static int getDayOfMonth(int julianDay) {
+        int l = julianDay + 68569;
+        int n = 4 * l / 146097;
+        l = l - (146097 * n + 3) / 4;
+        int i = 4000 * (l + 1) / 1461001;
+        l = l - 1461 * i / 4 + 31;
+        int j = 80 * l / 2447;
+        return l - 2447 * j / 80;
+    }
+
+    /**
+     * Returns true for the OpenWeatherMap conditions with precipitation: thunderstorms, drizzle,
+     * rain and snow.
+     */
+    static boolean isPrecipitation(int weatherId) {
+        return weatherId >= 200 && weatherId < 700;
+    }
+
+    private static String join(String[] columns) {
+        StringBuilder joined = new StringBuilder();
+        for (String column : columns) {
+            if (joined.length() > 0) {
+                joined.append(", ");
+            }
+            joined.append(column);
+        }
+        return joined.toString();
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder placeholders = new StringBuilder("?");
+        for (int i = 1; i < count; i++) {
+            placeholders.append(", ?");
+        }
+        return placeholders.toString();
+    }
+}
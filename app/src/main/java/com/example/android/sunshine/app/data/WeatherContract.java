@@ -19,7 +19,6 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +42,15 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_AGGREGATE = "aggregate";
+    public static final String PATH_DRIFT = "drift";
+    public static final String PATH_ACCURACY = "accuracy";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
+    // the database to the start of the the Julian day, local midnight.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return DayIndex.normalize(startDate);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -144,11 +143,74 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        // Keyset pagination: a page holds the rows following the key of the last row of the
+        // previous page, in ascending date order
+        public static final String PARAM_AFTER_DATE = "after_date";
+        // On CONTENT_URI, where several locations share a date, the key includes the location
+        public static final String PARAM_AFTER_LOCATION = "after_location";
+        public static final String PARAM_LIMIT = "limit";
+
+        /**
+         * Returns the uri of the page of at most limit rows following the given date.
+         * @param uri the uri of the whole result, {@link #CONTENT_URI} or a location's uri
+         */
+        public static Uri buildPage(Uri uri, long afterDate, int limit) {
+            return uri.buildUpon()
+                    .appendQueryParameter(PARAM_AFTER_DATE, Long.toString(afterDate))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        /**
+         * Returns the uri of the page of at most limit rows of {@link #CONTENT_URI} following
+         * the row of the given date and location.
+         */
+        public static Uri buildPage(long afterDate, long afterLocationId, int limit) {
+            return buildPage(CONTENT_URI, afterDate, limit).buildUpon()
+                    .appendQueryParameter(PARAM_AFTER_LOCATION, Long.toString(afterLocationId))
+                    .build();
+        }
+
+        /**
+         * Returns the uri of the first page of at most limit rows.
+         */
+        public static Uri buildFirstPage(Uri uri, int limit) {
+            return uri.buildUpon()
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        // Deleting through an archive uri moves the rows to the history first
+        public static final String PARAM_ARCHIVE = "archive";
+        // History older than this date is dropped when archiving
+        public static final String PARAM_KEEP_HISTORY_FROM = "keep_history_from";
+
+        /**
+         * Returns the uri to delete past days through, keeping them in the history from the
+         * given date on.
+         */
+        public static Uri buildArchiveUri(long keepHistoryFrom) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_ARCHIVE, "1")
+                    .appendQueryParameter(PARAM_KEEP_HISTORY_FROM, Long.toString(keepHistoryFrom))
+                    .build();
+        }
+
+        public static boolean isArchiveUri(Uri uri) {
+            return "1".equals(uri.getQueryParameter(PARAM_ARCHIVE));
+        }
+
+        public static long getKeepHistoryFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_KEEP_HISTORY_FROM);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
@@ -157,6 +219,39 @@ public class WeatherContract {
             return Long.parseLong(uri.getPathSegments().get(2));
         }
 
+        /**
+         * Returns the date the page of the uri follows, or -1 for a first page or no paging.
+         */
+        public static long getAfterDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_AFTER_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return -1;
+        }
+
+        /**
+         * Returns the location id the page of the uri follows, or -1 if the key is the date only.
+         */
+        public static long getAfterLocationFromUri(Uri uri) {
+            String locationString = uri.getQueryParameter(PARAM_AFTER_LOCATION);
+            if (null != locationString && locationString.length() > 0)
+                return Long.parseLong(locationString);
+            else
+                return -1;
+        }
+
+        /**
+         * Returns the maximum number of rows of the page of the uri, or 0 for no limit.
+         */
+        public static int getLimitFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(PARAM_LIMIT);
+            if (null != limitString && limitString.length() > 0)
+                return Integer.parseInt(limitString);
+            else
+                return 0;
+        }
+
         public static long getStartDateFromUri(Uri uri) {
             String dateString = uri.getQueryParameter(COLUMN_DATE);
             if (null != dateString && dateString.length() > 0)
@@ -165,4 +260,160 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the contents of the history, the past days of the forecast with
+       the columns of the weather table */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "history";
+
+        public static Uri buildHistoryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /* Inner class that defines the contents of the aggregates of the history, per location and
+       per day, week or month */
+    public static final class AggregateEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_AGGREGATE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_AGGREGATE;
+
+        public static final String TABLE_NAME = "aggregate";
+
+        // Values of the period column
+        public static final int PERIOD_DAY = 0;
+        // weeks start on Monday
+        public static final int PERIOD_WEEK = 1;
+        public static final int PERIOD_MONTH = 2;
+
+        public static final String COLUMN_LOC_KEY = "location_id";
+        public static final String COLUMN_PERIOD = "period";
+        // Date of the first day of the period, stored as long in milliseconds since the epoch
+        public static final String COLUMN_PERIOD_START = "period_start";
+        // Number of days of the history in the period
+        public static final String COLUMN_DAYS = "days";
+        // Lowest minimum and highest maximum temperature of the period, in Celsius
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        // Average of the daily mean temperatures, in Celsius
+        public static final String COLUMN_AVG_TEMP = "avg";
+        // Number of days with rain, drizzle, snow or thunderstorms
+        public static final String COLUMN_PRECIPITATION_DAYS = "precipitation_days";
+
+        public static final String PARAM_PERIOD = "period";
+
+        /**
+         * Returns the uri of the aggregates of one kind of period for a location.
+         */
+        public static Uri buildAggregateLocation(String locationSetting, int period) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_PERIOD, Integer.toString(period)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * Returns the period of the uri, or -1 for every period.
+         */
+        public static int getPeriodFromUri(Uri uri) {
+            String periodString = uri.getQueryParameter(PARAM_PERIOD);
+            if (null != periodString && periodString.length() > 0)
+                return Integer.parseInt(periodString);
+            else
+                return -1;
+        }
+    }
+
+    /* Inner class that defines the contents of the drift of the forecast, every version issued
+       for a day of a location */
+    public static final class DriftEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_DRIFT).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DRIFT;
+
+        public static final String TABLE_NAME = "drift";
+
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Day forecast, stored as long in milliseconds since the epoch
+        public static final String COLUMN_DATE = "date";
+        // When the version was received, in milliseconds since the epoch
+        public static final String COLUMN_ISSUED = "issued";
+        // Days between the day the version was received and the day forecast
+        public static final String COLUMN_LEAD_DAYS = "lead_days";
+        // The forecast of the version, as in the weather table
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        /**
+         * Returns the uri of the versions of the forecast of a day, oldest first.
+         */
+        public static Uri buildDriftLocationWithDate(String locationSetting, long date) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(Long.toString(normalizeDate(date))).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getDateFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(2));
+        }
+    }
+
+    /* Inner class that defines the contents of the accuracy of the forecast of the past days of a
+       location, compared with their final forecast per lead time */
+    public static final class AccuracyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ACCURACY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ACCURACY;
+
+        public static final String TABLE_NAME = "accuracy";
+
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Days ahead the versions were received, also the _id of the row
+        public static final String COLUMN_LEAD_DAYS = "lead_days";
+        // Number of versions compared
+        public static final String COLUMN_VERSIONS = "versions";
+        // Mean absolute error of the temperatures, in Celsius
+        public static final String COLUMN_MAX_TEMP_ERROR = "max_error";
+        public static final String COLUMN_MIN_TEMP_ERROR = "min_error";
+        // Fraction of the versions with the final condition, from 0 to 1
+        public static final String COLUMN_CONDITION_HITS = "condition_hits";
+
+        public static Uri buildAccuracyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
 }
@@ -16,24 +16,33 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
-import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
 
 /**
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 5;
 
     static final String DATABASE_NAME = "weather.db";
 
+    private final Context mContext;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context;
     }
 
     @Override
@@ -48,39 +57,45 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
                 " );";
 
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
-                // Why AutoIncrement here, and not above?
-                // Unique keys will be auto-generated in either case.  But for weather
-                // forecasting, it's reasonable to assume the user will want information
-                // for a certain date and all dates *following*, so the forecast data
-                // should be sorted accordingly.
-                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-
-                // the ID of the location entry associated with this weather data
-                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
-
-                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
-
-                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        // The weather rows are stored compactly, and read through a view with the columns of
+        // WeatherEntry
+        WeatherStorage.createTables(sqLiteDatabase);
+        // Past days and their aggregates
+        WeatherArchive.createTables(sqLiteDatabase);
+        // Every version of the forecast of each day, after the history its accuracy is read from
+        ForecastVersions.createTables(sqLiteDatabase);
 
-                // Set up the location column as a foreign key to location table.
-                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
-                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+        seed(sqLiteDatabase);
+    }
 
-                // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+    /**
+     * Fills a new database with the export of the cache left by the last sync, so a database
+     * recreated by an upgrade shows the forecast it had before its first sync.  A device that
+     * never synced is seeded with the forecast bundled in the assets, if the build ships one.
+     */
+    private void seed(SQLiteDatabase sqLiteDatabase) {
+        File cache = new File(mContext.getFilesDir(), ForecastBundle.CACHE_FILE);
+        if (cache.exists()) {
+            try {
+                int inserted = ForecastBundle.open(cache).importInto(sqLiteDatabase);
+                Log.d(LOG_TAG, "Restored " + inserted + " days from " + ForecastBundle.CACHE_FILE);
+                return;
+            } catch (IOException e) {
+                // written by an older format, rewritten after the next sync
+                Log.w(LOG_TAG, "Could not restore " + ForecastBundle.CACHE_FILE, e);
+            }
+        }
 
-        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
-        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        ForecastBundle seed;
+        try {
+            seed = ForecastBundle.openAsset(mContext, ForecastBundle.SEED_ASSET);
+        } catch (IOException e) {
+            // no seed in this build
+            return;
+        }
+        int inserted = seed.importInto(sqLiteDatabase);
+        Log.d(LOG_TAG, "Seeded " + inserted + " days from " + ForecastBundle.SEED_ASSET);
     }
 
     @Override
@@ -91,8 +106,19 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         // It does NOT depend on the version number for your application.
         // If you want to update the schema without wiping data, commenting out the next 2 lines
         // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        // Versions before 3 had a weather table where there is now a view, so drop whatever the
+        // schema holds by its type
+        Cursor cursor = sqLiteDatabase.rawQuery("SELECT type, name FROM sqlite_master"
+                + " WHERE type IN ('view', 'table') AND name NOT LIKE 'sqlite_%'"
+                + " AND name != 'android_metadata' ORDER BY type DESC", null);
+        try {
+            while (cursor.moveToNext()) {
+                sqLiteDatabase.execSQL("DROP " + cursor.getString(0).toUpperCase(Locale.US)
+                        + " IF EXISTS " + cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
         onCreate(sqLiteDatabase);
     }
 }
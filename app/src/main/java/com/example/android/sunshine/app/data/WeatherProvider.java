@@ -17,13 +17,19 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
@@ -34,56 +40,151 @@ public class WeatherProvider extends ContentProvider {
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int HISTORY_WITH_LOCATION = 400;
+    static final int AGGREGATE_WITH_LOCATION = 500;
+    static final int DRIFT_WITH_LOCATION_AND_DATE = 600;
+    static final int ACCURACY_WITH_LOCATION = 700;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
-
-    static{
-        sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
-        
-        //This is an inner join which looks like
-        //weather INNER JOIN location ON weather.location_id = location._id
-        sWeatherByLocationSettingQueryBuilder.setTables(
-                WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
-                        WeatherContract.LocationEntry.TABLE_NAME +
-                        " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
-                        "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
-                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
-                        "." + WeatherContract.LocationEntry._ID);
-    }
+    private final LocationRegistry mLocations = LocationRegistry.getInstance();
 
-    //location.location_setting = ?
-    private static final String sLocationSettingSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
+    // Uris changed by the batch the calling thread is applying, notified once it is committed
+    private final ThreadLocal<LinkedHashSet<Uri>> mBatchChanges = new ThreadLocal<LinkedHashSet<Uri>>();
 
-    //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+    //weather.location_id = ?
+    private static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //weather.location_id = ? AND date >= ?
+    private static final String sLocationIdWithStartDateSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
-    //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
-            WeatherContract.LocationEntry.TABLE_NAME +
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+    //weather.location_id = ? AND date = ?
+    private static final String sLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    // Pages follow the key, so their order is fixed whatever order the caller asked for
+    private static final String sPageSortOrder =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+    private static final String sAllLocationsPageSortOrder =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " ASC, " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " ASC";
+
+    //date > ?
+    private static final String sAfterDateSelection =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " > ? ";
+
+    //date > ? OR (date = ? AND location_id > ?)
+    private static final String sAfterDateAndLocationSelection =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " > ? OR (" +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " > ?) ";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        long afterDate = WeatherContract.WeatherEntry.getAfterDateFromUri(uri);
+        int limit = WeatherContract.WeatherEntry.getLimitFromUri(uri);
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        LocationRegistry.Entry location = resolveLocation(db, locationSetting);
 
         String[] selectionArgs;
         String selection;
 
         if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
+            selection = sLocationIdSelection;
+            selectionArgs = new String[]{getLocationId(location)};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
+            selectionArgs = new String[]{getLocationId(location), Long.toString(startDate)};
+            selection = sLocationIdWithStartDateSelection;
+        }
+
+        if (afterDate != -1) {
+            selection = selection + " AND " + sAfterDateSelection;
+            selectionArgs = appendArgs(selectionArgs, Long.toString(afterDate));
+        }
+        if (afterDate != -1 || limit > 0) {
+            sortOrder = sPageSortOrder;
+        }
+
+        return db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                withLocationColumns(projection, location),
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder,
+                limit > 0 ? Integer.toString(limit) : null
+        );
+    }
+
+    private Cursor getWeather(Uri uri, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder) {
+        long afterDate = WeatherContract.WeatherEntry.getAfterDateFromUri(uri);
+        long afterLocation = WeatherContract.WeatherEntry.getAfterLocationFromUri(uri);
+        int limit = WeatherContract.WeatherEntry.getLimitFromUri(uri);
+
+        if (afterDate != -1) {
+            String keySelection;
+            if (afterLocation == -1) {
+                keySelection = sAfterDateSelection;
+                selectionArgs = appendArgs(selectionArgs, Long.toString(afterDate));
+            } else {
+                keySelection = sAfterDateAndLocationSelection;
+                selectionArgs = appendArgs(selectionArgs, Long.toString(afterDate),
+                        Long.toString(afterDate), Long.toString(afterLocation));
+            }
+            selection = selection == null ? keySelection
+                    : "(" + selection + ") AND (" + keySelection + ")";
         }
+        if (afterDate != -1 || limit > 0) {
+            sortOrder = sAllLocationsPageSortOrder;
+        }
+
+        return mOpenHelper.getReadableDatabase().query(
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder,
+                limit > 0 ? Integer.toString(limit) : null
+        );
+    }
+
+    private Cursor getHistoryByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HistoryEntry.getLocationSettingFromUri(uri);
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        LocationRegistry.Entry location = resolveLocation(db, locationSetting);
+
+        return db.query(WeatherContract.HistoryEntry.TABLE_NAME,
+                withLocationColumns(projection, location),
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{getLocationId(location)},
+                null,
+                null,
+                sortOrder
+        );
+    }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+    private Cursor getAggregatesByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.AggregateEntry.getLocationSettingFromUri(uri);
+        int period = WeatherContract.AggregateEntry.getPeriodFromUri(uri);
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        LocationRegistry.Entry location = resolveLocation(db, locationSetting);
+
+        String selection = WeatherContract.AggregateEntry.COLUMN_LOC_KEY + " = ?";
+        String[] selectionArgs = {getLocationId(location)};
+        if (period != -1) {
+            selection = selection + " AND " + WeatherContract.AggregateEntry.COLUMN_PERIOD + " = ?";
+            selectionArgs = appendArgs(selectionArgs, Integer.toString(period));
+        }
+        return db.query(WeatherContract.AggregateEntry.TABLE_NAME,
                 projection,
                 selection,
                 selectionArgs,
@@ -93,21 +194,133 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    private Cursor getDriftByLocationSettingAndDate(Uri uri, String[] projection,
+                                                    String sortOrder) {
+        String locationSetting = WeatherContract.DriftEntry.getLocationSettingFromUri(uri);
+        long date = WeatherContract.DriftEntry.getDateFromUri(uri);
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        LocationRegistry.Entry location = resolveLocation(db, locationSetting);
+
+        return db.query(WeatherContract.DriftEntry.TABLE_NAME,
+                projection,
+                WeatherContract.DriftEntry.COLUMN_LOC_KEY + " = ? AND " +
+                        WeatherContract.DriftEntry.COLUMN_DATE + " = ?",
+                new String[]{getLocationId(location), Long.toString(date)},
+                null,
+                null,
+                // versions in the order they were received
+                sortOrder == null ? WeatherContract.DriftEntry._ID + " ASC" : sortOrder
+        );
+    }
+
+    private Cursor getAccuracyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.AccuracyEntry.getLocationSettingFromUri(uri);
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        LocationRegistry.Entry location = resolveLocation(db, locationSetting);
+
+        return db.query(WeatherContract.AccuracyEntry.TABLE_NAME,
+                projection,
+                WeatherContract.AccuracyEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{getLocationId(location)},
+                null,
+                null,
+                sortOrder == null ? WeatherContract.AccuracyEntry.COLUMN_LEAD_DAYS + " ASC" : sortOrder
+        );
+    }
+
+    private static String[] appendArgs(String[] args, String... more) {
+        int length = args == null ? 0 : args.length;
+        String[] all = new String[length + more.length];
+        if (args != null) {
+            System.arraycopy(args, 0, all, 0, length);
+        }
+        System.arraycopy(more, 0, all, length, more.length);
+        return all;
+    }
+
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        LocationRegistry.Entry location = resolveLocation(db, locationSetting);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+        return db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                withLocationColumns(projection, location),
+                sLocationIdAndDaySelection,
+                new String[]{getLocationId(location), Long.toString(date)},
                 null,
                 null,
                 sortOrder
         );
     }
 
+    /**
+     * Returns the location to read the forecast of a setting from: its own, or for a setting of
+     * coordinates not fetched yet, the one stored nearby, until the sync brings its own.
+     */
+    private LocationRegistry.Entry resolveLocation(SQLiteDatabase db, String locationSetting) {
+        LocationRegistry.Entry location = mLocations.getBySetting(db, locationSetting);
+        if (location == null) {
+            double[] coordinates = LocationRegistry.parseCoordinates(locationSetting);
+            if (coordinates != null) {
+                location = mLocations.getNearest(db, coordinates[0], coordinates[1],
+                        LocationRegistry.MATCH_RADIUS_KM);
+            }
+        }
+        return location;
+    }
+
+    private static String getLocationId(LocationRegistry.Entry location) {
+        // an unknown location matches no weather row
+        return Long.toString(location == null ? -1 : location.id);
+    }
+
+    /**
+     * Returns the projection with the location columns replaced by the values of the location,
+     * which is the same for every row, so the weather table can be queried alone.
+     */
+    static String[] withLocationColumns(String[] projection, LocationRegistry.Entry location) {
+        if (projection == null) {
+            // what "*" returned on the join
+            projection = new String[]{
+                    WeatherContract.WeatherEntry.TABLE_NAME + ".*",
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                    WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                    WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                    WeatherContract.LocationEntry.COLUMN_COORD_LONG
+            };
+        }
+        String locationPrefix = WeatherContract.LocationEntry.TABLE_NAME + ".";
+        String[] columns = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            String column = projection[i];
+            boolean qualified = column.startsWith(locationPrefix);
+            if (qualified) {
+                column = column.substring(locationPrefix.length());
+            }
+            String value;
+            if (WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING.equals(column)) {
+                value = location == null ? null
+                        : DatabaseUtils.sqlEscapeString(location.locationSetting);
+            } else if (WeatherContract.LocationEntry.COLUMN_CITY_NAME.equals(column)) {
+                value = location == null ? null : DatabaseUtils.sqlEscapeString(location.cityName);
+            } else if (WeatherContract.LocationEntry.COLUMN_COORD_LAT.equals(column)) {
+                value = location == null ? null : Double.toString(location.coordLat);
+            } else if (WeatherContract.LocationEntry.COLUMN_COORD_LONG.equals(column)) {
+                value = location == null ? null : Double.toString(location.coordLong);
+            } else if (qualified && WeatherContract.LocationEntry._ID.equals(column)) {
+                // location._id is stored in every weather row
+                value = WeatherContract.WeatherEntry.COLUMN_LOC_KEY;
+            } else {
+                columns[i] = projection[i];
+                continue;
+            }
+            columns[i] = (value == null ? "NULL" : value) + " AS " + column;
+        }
+        return columns;
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +343,10 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_AGGREGATE + "/*", AGGREGATE_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_DRIFT + "/*/#", DRIFT_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_ACCURACY + "/*", ACCURACY_WITH_LOCATION);
         return matcher;
     }
 
@@ -140,6 +357,8 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        // a new helper may be opening a different database than the one the registry was read from
+        mLocations.invalidate();
         return true;
     }
 
@@ -164,6 +383,14 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
+            case AGGREGATE_WITH_LOCATION:
+                return WeatherContract.AggregateEntry.CONTENT_TYPE;
+            case DRIFT_WITH_LOCATION_AND_DATE:
+                return WeatherContract.DriftEntry.CONTENT_TYPE;
+            case ACCURACY_WITH_LOCATION:
+                return WeatherContract.AccuracyEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -185,19 +412,38 @@ public class WeatherProvider extends ContentProvider {
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
                 retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                // The forecast list and the widgets bind these rows over and over, hand them
+                // primitive arrays instead of the CursorWindow
+                ForecastCursor forecastCursor = ForecastCursor.copyOf(retCursor);
+                if (forecastCursor != null) {
+                    retCursor.close();
+                    retCursor = forecastCursor;
+                }
                 break;
             }
             // "weather"
             case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
+                retCursor = getWeather(uri, projection, selection, selectionArgs, sortOrder);
+                break;
+            }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = getHistoryByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "aggregate/*"
+            case AGGREGATE_WITH_LOCATION: {
+                retCursor = getAggregatesByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "drift/*/#"
+            case DRIFT_WITH_LOCATION_AND_DATE: {
+                retCursor = getDriftByLocationSettingAndDate(uri, projection, sortOrder);
+                break;
+            }
+            // "accuracy/*"
+            case ACCURACY_WITH_LOCATION: {
+                retCursor = getAccuracyByLocationSetting(uri, projection, sortOrder);
                 break;
             }
             // "location"
@@ -233,7 +479,7 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                long _id = WeatherStorage.insert(db, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
@@ -241,7 +487,15 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
             case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                LocationRegistry.Entry stored = getStoredLocation(db, values);
+                if (stored != null && stored.sameAs(
+                        values.getAsString(WeatherContract.LocationEntry.COLUMN_CITY_NAME),
+                        values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT),
+                        values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG))) {
+                    // the sync adds its location every time, usually unchanged: nothing to write
+                    return WeatherContract.LocationEntry.buildLocationUri(stored.id);
+                }
+                long _id = upsertLocation(db, values, stored);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
@@ -251,10 +505,50 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
+    /**
+     * Returns the stored location with the setting of the values, null if there is none or the
+     * values are incomplete.
+     */
+    private LocationRegistry.Entry getStoredLocation(SQLiteDatabase db, ContentValues values) {
+        String setting = values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        if (setting == null || values.getAsString(WeatherContract.LocationEntry.COLUMN_CITY_NAME) == null
+                || values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT) == null
+                || values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG) == null) {
+            return null;
+        }
+        return mLocations.getBySetting(db, setting);
+    }
+
+    /**
+     * Inserts a location, or updates the stored one with the same setting, and records it in the
+     * registry.
+     * @return the row id, -1 on error
+     */
+    private long upsertLocation(SQLiteDatabase db, ContentValues values,
+                                LocationRegistry.Entry stored) {
+        long _id;
+        if (stored == null) {
+            // incomplete values are left for the constraints of the table to reject
+            _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+        } else {
+            _id = stored.id;
+            db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                    WeatherContract.LocationEntry._ID + " = ?", new String[]{Long.toString(_id)});
+        }
+        String setting = values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        String cityName = values.getAsString(WeatherContract.LocationEntry.COLUMN_CITY_NAME);
+        Double lat = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
+        Double lon = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+        if (_id > 0 && setting != null && cityName != null && lat != null && lon != null) {
+            mLocations.put(new LocationRegistry.Entry(_id, setting, cityName, lat, lon));
+        }
+        return _id;
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
@@ -264,19 +558,28 @@ public class WeatherProvider extends ContentProvider {
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                if (WeatherContract.WeatherEntry.isArchiveUri(uri)) {
+                    rowsDeleted = WeatherArchive.archive(db, selection, selectionArgs,
+                            WeatherContract.WeatherEntry.getKeepHistoryFromUri(uri));
+                    if (rowsDeleted != 0) {
+                        notifyChange(WeatherContract.HistoryEntry.CONTENT_URI);
+                        notifyChange(WeatherContract.AggregateEntry.CONTENT_URI);
+                    }
+                } else {
+                    rowsDeleted = WeatherStorage.delete(db, selection, selectionArgs);
+                }
                 break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                mLocations.invalidate();
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -299,22 +602,81 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER:
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                rowsUpdated = WeatherStorage.update(db, values, selection, selectionArgs);
                 break;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                mLocations.invalidate();
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
+    /**
+     * Applies the operations in one transaction, yielding to other writers where they allow it,
+     * and notifies each changed uri once, after the commit.  Operations may refer to the rows
+     * inserted before them, such as a weather row to the id of its location.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        LinkedHashSet<Uri> changes = new LinkedHashSet<Uri>();
+        mBatchChanges.set(changes);
+        boolean successful = false;
+        boolean yielded = false;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed() && db.yieldIfContendedSafely()) {
+                    // the operations so far are committed
+                    yielded = true;
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            db.endTransaction();
+            mBatchChanges.remove();
+            if (!successful) {
+                // the registry may hold locations that were rolled back
+                mLocations.invalidate();
+            }
+            if (successful || yielded) {
+                for (Uri uri : changes) {
+                    sendChange(uri);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Notifies the observers of a uri, or when a batch is being applied, once it is committed.
+     */
+    private void notifyChange(Uri uri) {
+        LinkedHashSet<Uri> changes = mBatchChanges.get();
+        if (changes != null) {
+            changes.add(uri);
+        } else {
+            sendChange(uri);
+        }
+    }
+
+    private void sendChange(Uri uri) {
+        getContext().getContentResolver().notifyChange(uri, null);
+        ForecastRepository.onProviderChange(uri);
+    }
+
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
@@ -326,7 +688,7 @@ public class WeatherProvider extends ContentProvider {
                 try {
                     for (ContentValues value : values) {
                         normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        long _id = WeatherStorage.insert(db, value);
                         if (_id != -1) {
                             returnCount++;
                         }
@@ -335,7 +697,8 @@ public class WeatherProvider extends ContentProvider {
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChange(uri);
+                notifyChange(WeatherContract.DriftEntry.CONTENT_URI);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.List;
+
+/**
+ * Compact storage of the forecast.  The rows live in {@link #DATA_TABLE}, keyed on
+ * (location_id, date), with the measures stored as integers scaled by {@link #SCALE} and the
+ * condition text kept once per weather id in {@link #CONDITION_TABLE}.  The
+ * {@link WeatherEntry#TABLE_NAME} view puts the columns of {@link WeatherContract} back together
+ * for reading; writes to the weather rows go through this class.
+ */
+class WeatherStorage {
+
+    static final String DATA_TABLE = "weather_data";
+    static final String CONDITION_TABLE = "weather_condition";
+
+    // Measures are stored in hundredths
+    static final int SCALE = 100;
+
+    private static final String[] SCALED_COLUMNS = {
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // The rows have no rowid on devices that support it, the view derives a stable _id from the
+    // key: the location in the high bits, the date in seconds in the low 40
+    private static final int ID_DATE_BITS = 40;
+    private static final String ID_EXPRESSION =
+            "(" + WeatherEntry.COLUMN_LOC_KEY + " << " + ID_DATE_BITS + ") | ("
+                    + WeatherEntry.COLUMN_DATE + " / 1000)";
+
+    private WeatherStorage() {
+    }
+
+    static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + CONDITION_TABLE + " (" +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER PRIMARY KEY, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL);");
+        createDataTable(db, DATA_TABLE);
+        createDataView(db, WeatherEntry.TABLE_NAME, DATA_TABLE);
+    }
+
+    /**
+     * Creates a table of compact weather rows.
+     */
+    static void createDataTable(SQLiteDatabase db, String table) {
+        // WITHOUT ROWID needs SQLite 3.8.2, older devices keep a rowid they never use
+        String withoutRowId = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                ? " WITHOUT ROWID" : "";
+        db.execSQL("CREATE TABLE " + table + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MIN_TEMP + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " INTEGER NOT NULL, " +
+
+                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                WeatherContract.LocationEntry.TABLE_NAME + " (" +
+                WeatherContract.LocationEntry._ID + "), " +
+
+                // One entry per day per location, a new forecast for the day replaces the old one
+                " PRIMARY KEY (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE)" + withoutRowId + ";");
+    }
+
+    /**
+     * Creates a view with the columns of {@link WeatherEntry} over a table of compact rows.
+     */
+    static void createDataView(SQLiteDatabase db, String view, String table) {
+        StringBuilder sql = new StringBuilder("CREATE VIEW " + view + " AS SELECT ")
+                .append(ID_EXPRESSION).append(" AS ").append(WeatherEntry._ID).append(", ")
+                .append("d.").append(WeatherEntry.COLUMN_LOC_KEY).append(" AS ")
+                .append(WeatherEntry.COLUMN_LOC_KEY).append(", ")
+                .append("d.").append(WeatherEntry.COLUMN_DATE).append(" AS ")
+                .append(WeatherEntry.COLUMN_DATE).append(", ")
+                .append("d.").append(WeatherEntry.COLUMN_WEATHER_ID).append(" AS ")
+                .append(WeatherEntry.COLUMN_WEATHER_ID).append(", ")
+                .append("c.").append(WeatherEntry.COLUMN_SHORT_DESC).append(" AS ")
+                .append(WeatherEntry.COLUMN_SHORT_DESC);
+        for (String column : SCALED_COLUMNS) {
+            sql.append(", d.").append(column).append(" / ").append(SCALE).append(".0 AS ")
+                    .append(column);
+        }
+        sql.append(" FROM ").append(table).append(" d LEFT JOIN ").append(CONDITION_TABLE)
+                .append(" c ON c.").append(WeatherEntry.COLUMN_WEATHER_ID)
+                .append(" = d.").append(WeatherEntry.COLUMN_WEATHER_ID).append(";");
+        db.execSQL(sql.toString());
+    }
+
+    /**
+     * Returns the _id the view gives the row of the location and date.
+     */
+    static long getId(long locationId, long date) {
+        return (locationId << ID_DATE_BITS) | (date / 1000);
+    }
+
+    /**
+     * Stores a row received now, see {@link #insert(SQLiteDatabase, ContentValues, long)}.
+     */
+    static long insert(SQLiteDatabase db, ContentValues values) {
+        return insert(db, values, System.currentTimeMillis());
+    }
+
+    /**
+     * Stores a row given with the columns of {@link WeatherEntry}, replacing the one of the same
+     * location and day, and records the new version of the forecast of the day.
+     * @param issued when the forecast of the row was issued
+     * @return the _id of the row, -1 on error
+     */
+    static long insert(SQLiteDatabase db, ContentValues values, long issued) {
+        putCondition(db, values);
+        ContentValues row = toStorage(values);
+        ContentValues previous = ForecastVersions.getCurrent(db, row);
+        if (db.insert(DATA_TABLE, null, row) == -1) {
+            return -1;
+        }
+        ForecastVersions.record(db, row, previous, issued);
+        return getId(values.getAsLong(WeatherEntry.COLUMN_LOC_KEY),
+                values.getAsLong(WeatherEntry.COLUMN_DATE));
+    }
+
+    /**
+     * Updates the rows of the view matching the selection, and records the new versions of the
+     * forecasts of their days, as received now.
+     */
+    static int update(SQLiteDatabase db, ContentValues values, String selection,
+                      String[] selectionArgs) {
+        if (selection == null) {
+            selection = "1";
+        }
+        String keySelection = toKeySelection(selection);
+        if (values.containsKey(WeatherEntry.COLUMN_SHORT_DESC)) {
+            if (values.containsKey(WeatherEntry.COLUMN_WEATHER_ID)) {
+                putCondition(db, values);
+            } else {
+                // renames the condition of the matching rows, for every row sharing it
+                ContentValues condition = new ContentValues();
+                condition.put(WeatherEntry.COLUMN_SHORT_DESC,
+                        values.getAsString(WeatherEntry.COLUMN_SHORT_DESC));
+                db.update(CONDITION_TABLE, condition, WeatherEntry.COLUMN_WEATHER_ID
+                        + " IN (SELECT " + WeatherEntry.COLUMN_WEATHER_ID + " FROM "
+                        + WeatherEntry.TABLE_NAME + " WHERE " + selection + ")", selectionArgs);
+            }
+        }
+        ContentValues row = toStorage(values);
+        if (row.size() == 0) {
+            return countRows(db, selection, selectionArgs);
+        }
+        long issued = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            List<ContentValues> previous =
+                    ForecastVersions.getCurrent(db, keySelection, selectionArgs);
+            int updated = db.update(DATA_TABLE, row, keySelection, selectionArgs);
+            for (ContentValues before : previous) {
+                // the row as updated, unless the update moved it to another key
+                ContentValues after = ForecastVersions.getCurrent(db, before);
+                if (after != null) {
+                    ForecastVersions.record(db, after, before, issued);
+                }
+            }
+            db.setTransactionSuccessful();
+            return updated;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes the rows of the view matching the selection, null deleting them all.
+     */
+    static int delete(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        String keySelection = toKeySelection(selection);
+        return db.delete(DATA_TABLE, keySelection, keySelection == null ? null : selectionArgs);
+    }
+
+    /**
+     * Turns a selection on the columns of the view into one on the rows of the data table.
+     */
+    static String toKeySelection(String selection) {
+        if (selection == null || selection.equals("1")) {
+            return selection;
+        }
+        return ID_EXPRESSION + " IN (SELECT " + WeatherEntry._ID + " FROM "
+                + WeatherEntry.TABLE_NAME + " WHERE " + selection + ")";
+    }
+
+    private static int countRows(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        return (int) DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM "
+                + WeatherEntry.TABLE_NAME + (selection == null ? "" : " WHERE " + selection),
+                selectionArgs);
+    }
+
+    private static void putCondition(SQLiteDatabase db, ContentValues values) {
+        Integer weatherId = values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+        String shortDesc = values.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+        if (weatherId == null || shortDesc == null) {
+            return;
+        }
+        ContentValues condition = new ContentValues();
+        condition.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        condition.put(WeatherEntry.COLUMN_SHORT_DESC, shortDesc);
+        db.insertWithOnConflict(CONDITION_TABLE, null, condition,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Returns the values with the measures scaled and without the columns the data table does
+     * not store.
+     */
+    private static ContentValues toStorage(ContentValues values) {
+        ContentValues row = new ContentValues(values);
+        row.remove(WeatherEntry._ID);
+        row.remove(WeatherEntry.COLUMN_SHORT_DESC);
+        for (String column : SCALED_COLUMNS) {
+            if (values.containsKey(column)) {
+                Double value = values.getAsDouble(column);
+                if (value == null) {
+                    row.putNull(column);
+                } else {
+                    row.put(column, Math.round(value * SCALE));
+                }
+            }
+        }
+        return row;
+    }
+}
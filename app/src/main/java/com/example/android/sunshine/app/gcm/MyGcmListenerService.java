@@ -18,8 +18,10 @@ package com.example.android.sunshine.app.gcm;
 
 import android.app.NotificationManager;
 import android.app.PendingIntent;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Bundle;
@@ -29,11 +31,21 @@ import android.widget.Toast;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncCoordinator;
+import com.example.android.sunshine.app.sync.WearableForecastPublisher;
 import com.google.android.gms.gcm.GcmListenerService;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
 public class MyGcmListenerService extends GcmListenerService {
 
     private static final String TAG = "MyGcmListenerService";
@@ -41,6 +53,34 @@ public class MyGcmListenerService extends GcmListenerService {
     private static final String EXTRA_DATA = "data";
     private static final String EXTRA_WEATHER = "weather";
     private static final String EXTRA_LOCATION = "location";
+    private static final String EXTRA_TYPE = "type";
+    private static final String EXTRA_DAYS = "days";
+    private static final String EXTRA_DATES = "dates";
+    private static final String EXTRA_DATE = "date";
+
+    // Message types.  Messages without a type are plain weather alerts.
+    private static final String TYPE_ALERT = "alert";
+    // Changed values for some days of a location's forecast
+    private static final String TYPE_DELTA = "delta";
+    // The forecast of a location (optionally only some dates) is out of date
+    private static final String TYPE_INVALIDATE = "invalidate";
+
+    // Dates are sent as local calendar days, e.g. 20160405
+    private static final String DATE_FORMAT = "yyyyMMdd";
+
+    // Columns a delta may change, with the same names as in the weather table
+    private static final String[] DELTA_DOUBLE_COLUMNS = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String sWeatherByLocationAndDateSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
     public static final int NOTIFICATION_ID = 1;
 
@@ -62,23 +102,145 @@ public class MyGcmListenerService extends GcmListenerService {
             }
             // Not a bad idea to check that the message is coming from your server.
             if ((senderId).equals(from)) {
-                // Process message and then post a notification of the received message.
+                // Process message: update the forecast or post a notification of the alert.
                 try {
                     JSONObject jsonObject = new JSONObject(data.getString(EXTRA_DATA));
-                    String weather = jsonObject.getString(EXTRA_WEATHER);
-                    String location = jsonObject.getString(EXTRA_LOCATION);
-                    String alert =
-                            String.format(getString(R.string.gcm_weather_alert), weather, location);
-                    sendNotification(alert);
-                } catch (JSONException e) {
-                    // JSON parsing failed, so we just let this message go, since GCM is not one
-                    // of our critical features.
+                    String type = jsonObject.optString(EXTRA_TYPE, TYPE_ALERT);
+                    if (TYPE_DELTA.equals(type)) {
+                        applyForecastDelta(jsonObject);
+                    } else if (TYPE_INVALIDATE.equals(type)) {
+                        invalidateForecast(jsonObject);
+                    } else {
+                        String weather = jsonObject.getString(EXTRA_WEATHER);
+                        String location = jsonObject.getString(EXTRA_LOCATION);
+                        String alert = String.format(getString(R.string.gcm_weather_alert),
+                                weather, location);
+                        sendNotification(alert);
+                    }
+                } catch (JSONException | ParseException e) {
+                    // Parsing failed, so we just let this message go.  The periodic sync will
+                    // pick up the change anyway.
+                    Log.d(TAG, "Could not parse message", e);
                 }
             }
             Log.i(TAG, "Received: " + data.toString());
         }
     }
 
+    /**
+     * Writes the changed values of a delta message straight into the provider.  A delta can only
+     * change days we already have; if one of the days is missing, the location is synced instead.
+     *
+     * The message looks like
+     * {"type":"delta","location":"94043","days":[{"date":"20160405","max":21.5,"weather_id":800}]}
+     */
+    private void applyForecastDelta(JSONObject message) throws JSONException, ParseException {
+        String location = message.getString(EXTRA_LOCATION);
+        long locationId = getLocationId(location);
+        if (locationId == -1) {
+            // not a location we keep data for
+            return;
+        }
+
+        JSONArray days = message.getJSONArray(EXTRA_DAYS);
+        boolean missingDays = false;
+        for (int i = 0; i < days.length(); i++) {
+            JSONObject day = days.getJSONObject(i);
+            long date = parseDate(day.getString(EXTRA_DATE));
+            ContentValues values = getDeltaValues(day);
+            if (values.size() == 0) {
+                continue;
+            }
+            int updated = getContentResolver().update(WeatherContract.WeatherEntry.CONTENT_URI,
+                    values, sWeatherByLocationAndDateSelection,
+                    new String[]{Long.toString(locationId), Long.toString(date)});
+            if (updated == 0) {
+                missingDays = true;
+            }
+        }
+        Log.d(TAG, "Applied forecast delta for " + location);
+
+        if (!location.equals(Utility.getPreferredLocation(this))) {
+            return;
+        }
+        if (missingDays) {
+            SyncCoordinator.requestSync(this, 0);
+        } else {
+            // the sync adapter did not run, so tell the widgets and the watch ourselves
+            sendBroadcast(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                    .setPackage(getPackageName()));
+            WearableForecastPublisher.publishForecastBlocking(this);
+        }
+    }
+
+    /**
+     * Syncs the preferred location if the message says its forecast is out of date.  Other
+     * locations are not synced since only the preferred one is shown.  When the message lists
+     * dates, the sync is skipped if all of them are already in the past.
+     *
+     * The message looks like {"type":"invalidate","location":"94043","dates":["20160405"]}
+     */
+    private void invalidateForecast(JSONObject message) throws JSONException, ParseException {
+        String location = message.getString(EXTRA_LOCATION);
+        if (!location.equals(Utility.getPreferredLocation(this))) {
+            return;
+        }
+
+        JSONArray dates = message.optJSONArray(EXTRA_DATES);
+        if (dates != null) {
+            long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+            boolean upcoming = false;
+            for (int i = 0; i < dates.length() && !upcoming; i++) {
+                upcoming = parseDate(dates.getString(i)) >= today;
+            }
+            if (!upcoming) {
+                return;
+            }
+        }
+        Log.d(TAG, "Forecast invalidated for " + location);
+        SyncCoordinator.requestSync(this, 0);
+    }
+
+    private ContentValues getDeltaValues(JSONObject day) throws JSONException {
+        ContentValues values = new ContentValues();
+        for (String column : DELTA_DOUBLE_COLUMNS) {
+            if (day.has(column)) {
+                values.put(column, day.getDouble(column));
+            }
+        }
+        if (day.has(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID)) {
+            values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                    day.getInt(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+        }
+        if (day.has(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC)) {
+            values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                    day.getString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC));
+        }
+        return values;
+    }
+
+    private long parseDate(String date) throws ParseException {
+        SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT, Locale.US);
+        return WeatherContract.normalizeDate(format.parse(date).getTime());
+    }
+
+    private long getLocationId(String locationSetting) {
+        Cursor cursor = getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      *  Put the message into a notification and post it.
      *  This is just one simple example of what you might choose to do with a GCM message.
@@ -24,6 +24,7 @@ import android.widget.Toast;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.gcm.GoogleCloudMessaging;
 import com.google.android.gms.iid.InstanceID;
 
@@ -59,6 +60,9 @@ public class RegistrationIntentService extends IntentService {
                 // sent to your server. If the boolean is false, send the token to your server,
                 // otherwise your server should have already received the token.
                 sharedPreferences.edit().putBoolean(MainActivity.SENT_TOKEN_TO_SERVER, true).apply();
+
+                // Forecast changes are now pushed to us, so we can sync much less often
+                SunshineSyncAdapter.configurePeriodicSync(this, true);
             }
         } catch (Exception e) {
             Log.d(TAG, "Failed to complete token refresh", e);
@@ -66,6 +70,7 @@ public class RegistrationIntentService extends IntentService {
             // If an exception happens while fetching the new token or updating our registration data
             // on a third-party server, this ensures that we'll attempt the update at a later time.
             sharedPreferences.edit().putBoolean(MainActivity.SENT_TOKEN_TO_SERVER, false).apply();
+            SunshineSyncAdapter.configurePeriodicSync(this, false);
         }
     }
 
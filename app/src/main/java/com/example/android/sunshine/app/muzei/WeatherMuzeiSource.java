@@ -16,27 +16,41 @@
 package com.example.android.sunshine.app.muzei;
 
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
+import android.support.v4.content.FileProvider;
+import android.util.Log;
 
 import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.ForecastRepository;
+import com.example.android.sunshine.app.net.SunshineHttpClient;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.apps.muzei.api.Artwork;
 import com.google.android.apps.muzei.api.MuzeiArtSource;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
- * Muzei source that changes your background based on the current weather conditions
+ * Muzei source that changes your background based on the current weather conditions.
+ *
+ * A new artwork is only published when the image, title or byline differ from the current one.
+ * The images are downloaded once into our files and handed to Muzei through a FileProvider, so
+ * Muzei does not need the network each time the forecast is synced.
  */
 public class WeatherMuzeiSource extends MuzeiArtSource {
-    private static final String[] FORECAST_COLUMNS = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_SHORT_DESC = 1;
+    private static final String LOG_TAG = WeatherMuzeiSource.class.getSimpleName();
+
+    private static final String MUZEI_PACKAGE = "net.nurik.roman.muzei";
+    // Must match the path in res/xml/file_paths.xml.  There is one file per image url, and only
+    // a handful of urls, so the directory never needs to be cleaned up.
+    private static final String ART_DIRECTORY = "muzei";
 
     public WeatherMuzeiSource() {
         super("WeatherMuzeiSource");
@@ -55,25 +69,103 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
     @Override
     protected void onUpdate(int reason) {
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            String desc = cursor.getString(INDEX_SHORT_DESC);
+        // Only today's weather is shown, the first day of the forecast
+        ForecastRepository.Forecast forecast =
+                ForecastRepository.getInstance(this).getForecast(location, 1);
+        ForecastRepository.Day today =
+                forecast == null ? null : forecast.getDay(System.currentTimeMillis());
+        if (today == null) {
+            return;
+        }
+        int weatherId = today.weatherId;
+        String desc = today.shortDesc;
 
-            String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
-            // Only publish a new wallpaper if we have a valid image
-            if (imageUrl != null) {
-                publishArtwork(new Artwork.Builder()
-                        .imageUri(Uri.parse(imageUrl))
-                        .title(desc)
-                        .byline(location)
-                        .viewIntent(new Intent(this, MainActivity.class))
-                        .build());
+        String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
+        // Only publish a new wallpaper if we have a valid image
+        if (imageUrl == null) {
+            return;
+        }
+
+        // The token identifies the image, skip publishing if nothing would change on screen
+        Artwork current = getCurrentArtwork();
+        if (reason == UPDATE_REASON_OTHER && current != null
+                && imageUrl.equals(current.getToken())
+                && desc.equals(current.getTitle())
+                && location.equals(current.getByline())) {
+            Log.d(LOG_TAG, "Artwork unchanged");
+            return;
+        }
+
+        publishArtwork(new Artwork.Builder()
+                .imageUri(getLocalImageUri(imageUrl))
+                .token(imageUrl)
+                .title(desc)
+                .byline(location)
+                .viewIntent(new Intent(this, MainActivity.class))
+                .build());
+    }
+
+    /**
+     * Returns a content uri for a local copy of the image, downloading it first if needed.  Falls
+     * back to the remote url if the image can't be stored.
+     */
+    private Uri getLocalImageUri(String imageUrl) {
+        File directory = new File(getFilesDir(), ART_DIRECTORY);
+        File imageFile = new File(directory,
+                "art_" + Integer.toHexString(imageUrl.hashCode()) + ".jpg");
+        if (!imageFile.exists() && !downloadImage(imageUrl, directory, imageFile)) {
+            return Uri.parse(imageUrl);
+        }
+        Uri contentUri = FileProvider.getUriForFile(this,
+                getString(R.string.file_provider_authority), imageFile);
+        grantUriPermission(MUZEI_PACKAGE, contentUri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        return contentUri;
+    }
+
+    private boolean downloadImage(String imageUrl, File directory, File imageFile) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            return false;
+        }
+        // Write to a temporary file so a failed download never looks like a cached image
+        File tempFile = new File(directory, imageFile.getName() + ".tmp");
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            Request request = new Request.Builder().url(imageUrl).build();
+            Response response = SunshineHttpClient.getForDownloads(this)
+                    .newCall(request).execute();
+            in = response.body().byteStream();
+            if (!response.isSuccessful()) {
+                throw new IOException("Unexpected response " + response.code());
+            }
+            out = new FileOutputStream(tempFile);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.close();
+            out = null;
+            return tempFile.renameTo(imageFile);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error downloading " + imageUrl, e);
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
             }
+            tempFile.delete();
         }
-        cursor.close();
     }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.net;
+
+import android.content.Context;
+
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.OkHttpClient;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The one HTTP client of the app, used by the sync adapter, Glide and the Muzei source.  Sharing
+ * it means sharing its connection pool: a sync followed by art downloads reuses the kept-alive
+ * connections, and requests to the same host are multiplexed over a single connection when the
+ * server speaks HTTP/2.  OkHttp asks for gzip bodies and unzips them transparently.
+ */
+public class SunshineHttpClient {
+    // Timeouts for the small JSON responses, image downloads use getForDownloads
+    static final long CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    static final long READ_TIMEOUT_MILLIS = 20 * 1000;
+    static final long DOWNLOAD_READ_TIMEOUT_MILLIS = 60 * 1000;
+
+    // Enough idle connections for the forecast host and a couple of art hosts
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MILLIS = 5 * 60 * 1000;
+
+    private static final String CACHE_DIRECTORY = "http";
+    private static final long CACHE_SIZE = 10 * 1024 * 1024;
+
+    private static OkHttpClient sClient;
+    private static OkHttpClient sDownloadClient;
+
+    private SunshineHttpClient() {
+    }
+
+    /**
+     * Returns the shared client, creating it on first use.
+     */
+    public static synchronized OkHttpClient get(Context context) {
+        if (sClient == null) {
+            OkHttpClient client = new OkHttpClient();
+            client.setConnectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MILLIS));
+            client.setConnectTimeout(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            client.setReadTimeout(READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            client.setCache(new Cache(
+                    new File(context.getApplicationContext().getCacheDir(), CACHE_DIRECTORY),
+                    CACHE_SIZE));
+            sClient = client;
+        }
+        return sClient;
+    }
+
+    /**
+     * Returns a client for large downloads, with a longer read timeout.  It is a copy of the
+     * shared client, so it uses the same connection pool and cache.
+     */
+    public static synchronized OkHttpClient getForDownloads(Context context) {
+        if (sDownloadClient == null) {
+            OkHttpClient client = get(context).clone();
+            client.setReadTimeout(DOWNLOAD_READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            sDownloadClient = client;
+        }
+        return sDownloadClient;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Failure handling for one remote endpoint, kept in the preferences so it survives process
+ * restarts.  After each failure the next attempt is pushed back exponentially, with jitter so a
+ * fleet of devices does not retry in step.  After {@link #CIRCUIT_THRESHOLD} failures in a row
+ * the circuit opens: every attempt is refused for a while, then a single trial attempt is let
+ * through, which either closes the circuit or opens it again for twice as long.
+ */
+public class BackoffPolicy {
+    private static final String LOG_TAG = BackoffPolicy.class.getSimpleName();
+
+    private static final String PREFS = "sync_backoff";
+    private static final String KEY_FAILURES = "_failures";
+    private static final String KEY_NEXT_ATTEMPT = "_next_attempt";
+    private static final String KEY_OPEN_MILLIS = "_open_millis";
+
+    static final long BASE_DELAY_MILLIS = 30 * 1000;
+    static final long MAX_DELAY_MILLIS = 60 * 60 * 1000;
+    static final int CIRCUIT_THRESHOLD = 5;
+    static final long MIN_OPEN_MILLIS = 30 * 60 * 1000;
+    static final long MAX_OPEN_MILLIS = 6 * 60 * 60 * 1000;
+
+    private static final Random sRandom = new Random();
+
+    // One policy per endpoint, so its synchronized methods serialize every caller of the process
+    private static final HashMap<String, BackoffPolicy> sPolicies =
+            new HashMap<String, BackoffPolicy>();
+
+    private final SharedPreferences mPrefs;
+    private final String mEndpoint;
+
+    // Use forEndpoint, but to read the persisted state as a new process would
+    BackoffPolicy(Context context, String endpoint) {
+        mPrefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        mEndpoint = endpoint;
+    }
+
+    /**
+     * Returns the policy of the endpoint, any short name unique in the app.  The same instance
+     * is returned for the endpoint, so the sync and a manual refresh recording their results at
+     * once do not lose each other's update of the state.
+     */
+    public static BackoffPolicy forEndpoint(Context context, String endpoint) {
+        synchronized (sPolicies) {
+            BackoffPolicy policy = sPolicies.get(endpoint);
+            if (policy == null) {
+                policy = new BackoffPolicy(context.getApplicationContext(), endpoint);
+                sPolicies.put(endpoint, policy);
+            }
+            return policy;
+        }
+    }
+
+    /**
+     * Returns how long to wait before the endpoint may be tried again, 0 if it may be now.
+     */
+    public synchronized long getRemainingDelay() {
+        long nextAttempt = mPrefs.getLong(mEndpoint + KEY_NEXT_ATTEMPT, 0);
+        long remaining = nextAttempt - System.currentTimeMillis();
+        // a clock set backwards must not block the endpoint for longer than the maximum
+        long max = Math.max(MAX_DELAY_MILLIS, MAX_OPEN_MILLIS);
+        return remaining <= 0 ? 0 : Math.min(remaining, max);
+    }
+
+    /**
+     * Returns true while the circuit is open, i.e. the endpoint is considered down.
+     */
+    public synchronized boolean isCircuitOpen() {
+        return mPrefs.getInt(mEndpoint + KEY_FAILURES, 0) >= CIRCUIT_THRESHOLD;
+    }
+
+    public synchronized void onSuccess() {
+        if (mPrefs.getInt(mEndpoint + KEY_FAILURES, 0) == 0) {
+            return;
+        }
+        Log.d(LOG_TAG, mEndpoint + " is back");
+        mPrefs.edit()
+                .remove(mEndpoint + KEY_FAILURES)
+                .remove(mEndpoint + KEY_NEXT_ATTEMPT)
+                .remove(mEndpoint + KEY_OPEN_MILLIS)
+                .apply();
+    }
+
+    /**
+     * Records a failure and returns how long to wait before the next attempt.
+     */
+    public synchronized long onFailure() {
+        int failures = mPrefs.getInt(mEndpoint + KEY_FAILURES, 0) + 1;
+        SharedPreferences.Editor editor = mPrefs.edit();
+        long delay;
+        if (failures >= CIRCUIT_THRESHOLD) {
+            // the circuit opens, or the trial attempt failed and it opens again for longer
+            long lastOpen = mPrefs.getLong(mEndpoint + KEY_OPEN_MILLIS, 0);
+            delay = lastOpen == 0 ? MIN_OPEN_MILLIS : Math.min(MAX_OPEN_MILLIS, lastOpen * 2);
+            editor.putLong(mEndpoint + KEY_OPEN_MILLIS, delay);
+            Log.w(LOG_TAG, mEndpoint + " circuit open for " + delay / 1000 + "s");
+        } else {
+            delay = computeDelay(failures, sRandom.nextDouble());
+            Log.d(LOG_TAG, mEndpoint + " failure " + failures + ", retry in " + delay / 1000 + "s");
+        }
+        editor.putInt(mEndpoint + KEY_FAILURES, failures)
+                .putLong(mEndpoint + KEY_NEXT_ATTEMPT, System.currentTimeMillis() + delay)
+                .apply();
+        return delay;
+    }
+
+    /**
+     * Returns the delay after the given number of consecutive failures: between half and all of
+     * the exponential delay, so the retries of many devices spread out.
+     * @param random uniformly distributed in [0, 1)
+     */
+    static long computeDelay(int failures, double random) {
+        long exponential = BASE_DELAY_MILLIS << Math.min(failures - 1, 20);
+        exponential = Math.min(MAX_DELAY_MILLIS, exponential);
+        return exponential / 2 + (long) (random * (exponential / 2));
+    }
+}
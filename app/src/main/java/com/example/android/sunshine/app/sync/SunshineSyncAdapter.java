@@ -26,7 +26,6 @@ import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
@@ -34,28 +33,28 @@ import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.DayIndex;
+import com.example.android.sunshine.app.data.ForecastBundle;
+import com.example.android.sunshine.app.data.LocationRegistry;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+import com.example.android.sunshine.app.net.SunshineHttpClient;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Vector;
 import java.util.concurrent.ExecutionException;
 
@@ -68,10 +67,23 @@ implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFail
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
+    // Once GCM delivers forecast updates the periodic sync is only a safety net.
+    // 60 seconds (1 minute) * 720 = 12 hours
+    public static final int PUSH_SYNC_INTERVAL = 60 * 720;
+    public static final int PUSH_SYNC_FLEXTIME = PUSH_SYNC_INTERVAL/3;
+    // Name of the forecast API in the BackoffPolicy state
+    private static final String ENDPOINT_FORECAST = "forecast";
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
 
+    private static final String[] CHANGE_PROJECTION = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+
     private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
@@ -97,7 +109,6 @@ implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFail
 
     //wearable
     private GoogleApiClient mGoogleAPIClient;
-    private static final String WEARABLE_URL = "/sunshine-weather";
 
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
@@ -131,140 +142,110 @@ implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFail
     }
 
     private void sendWeatherToWatchface(){
-
-        if(mGoogleAPIClient == null){
-            return;
-        }
-
-        Context context = getContext();
-        //read the weather data by the current location
-        String locationQuery = Utility.getPreferredLocation(context);
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-        Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-        if (cursor.moveToFirst()) {
-            Log.d(LOG_TAG, "Sending weather to the watchface!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            double high = cursor.getDouble(INDEX_MAX_TEMP);
-            double low = cursor.getDouble(INDEX_MIN_TEMP);
-
-            int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-            Resources resources = context.getResources();
-            Bitmap icon = BitmapFactory.decodeResource(resources, iconId);
-
-            //send data to the wearable
-            //TODO send the image id?
-            final PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEARABLE_URL);
-            putDataMapRequest.getDataMap().putInt("weather_id", weatherId);
-            putDataMapRequest.getDataMap().putDouble("high", high);
-            putDataMapRequest.getDataMap().putDouble("low", low);
-
-            PutDataRequest putDataRequest = putDataMapRequest.asPutDataRequest();
-
-            Wearable.DataApi.putDataItem(mGoogleAPIClient, putDataRequest).setResultCallback(
-                    new ResultCallback<DataApi.DataItemResult>() {
-                        @Override
-                        public void onResult(DataApi.DataItemResult dataItemResult) {
-                            if (!dataItemResult.getStatus().isSuccess()) {
-                                //fail
-                                Log.d(LOG_TAG, "DataMap: sending error");
-                            } else {
-                                //success
-                                Log.d(LOG_TAG, "DataMap: " + putDataMapRequest.getDataMap() + " sent succesfully");
-                            }
-                        }
-                    }
-            );
-        }
+        WearableForecastPublisher.publishForecast(getContext(), mGoogleAPIClient);
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
-        Log.d(LOG_TAG, "Starting sync");
         String locationQuery = Utility.getPreferredLocation(getContext());
+        // on-demand requests made while this runs join it instead of starting another fetch
+        SyncCoordinator.onSyncStarted(locationQuery);
+        try {
+            performSync(locationQuery, syncResult);
+        } finally {
+            SyncCoordinator.onSyncFinished(locationQuery);
+        }
+    }
+
+    private void performSync(String locationQuery, SyncResult syncResult) {
+        Log.d(LOG_TAG, "Starting sync");
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        // Don't hit OpenWeatherMap again while it is failing, whoever asks for the sync
+        BackoffPolicy backoff = BackoffPolicy.forEndpoint(getContext(), ENDPOINT_FORECAST);
+        long remainingDelay = backoff.getRemainingDelay();
+        if (remainingDelay > 0) {
+            Log.d(LOG_TAG, "Sync skipped, backing off for " + remainingDelay / 1000 + "s");
+            syncResult.delayUntil = (System.currentTimeMillis() + remainingDelay) / 1000;
+            return;
+        }
 
         // Will contain the raw JSON response as a string.
         String forecastJsonStr = null;
 
         String format = "json";
         String units = "metric";
-        int numDays = 14;
+        int numDays = SyncScheduler.getForecastDays(getContext());
 
         try {
             // Construct the URL for the OpenWeatherMap query
             // Possible parameters are avaiable at OWM's forecast API page, at
             // http://openweathermap.org/API#forecast
             final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
+                    "https://api.openweathermap.org/data/2.5/forecast/daily?";
             final String QUERY_PARAM = "q";
             final String FORMAT_PARAM = "mode";
             final String UNITS_PARAM = "units";
             final String DAYS_PARAM = "cnt";
             final String APPID_PARAM = "APPID";
 
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
+            final String LAT_PARAM = "lat";
+            final String LON_PARAM = "lon";
+
+            Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
+            double[] coordinates = LocationRegistry.parseCoordinates(locationQuery);
+            if (coordinates != null) {
+                // a GPS fix, the forecast of a stored location nearby is shown until this returns
+                uriBuilder.appendQueryParameter(LAT_PARAM, Double.toString(coordinates[0]))
+                        .appendQueryParameter(LON_PARAM, Double.toString(coordinates[1]));
+            } else {
+                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
+            }
+            Uri builtUri = uriBuilder
                     .appendQueryParameter(FORMAT_PARAM, format)
                     .appendQueryParameter(UNITS_PARAM, units)
                     .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
                     .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
                     .build();
 
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            // Send the request to OpenWeatherMap through the shared client, which keeps the
+            // connection alive for the next sync and the art downloads
+            Request request = new Request.Builder()
+                    .url(builtUri.toString())
+                    .build();
+            Response response = SunshineHttpClient.get(getContext()).newCall(request).execute();
+            // An unknown location comes back as a 404 whose body says so, parse it like a 200
+            if (!response.isSuccessful() && response.code() != HttpURLConnection.HTTP_NOT_FOUND) {
+                response.body().close();
+                throw new IOException("Unexpected response " + response.code());
             }
 
-            if (buffer.length() == 0) {
+            // Read the whole body into a String, this also releases the connection to the pool
+            forecastJsonStr = response.body().string();
+            if (forecastJsonStr.length() == 0) {
                 // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+                throw new IOException("Empty response");
+            }
+            getWeatherDataFromJson(forecastJsonStr, locationQuery, syncResult);
+            if (syncResult.stats.numParseExceptions > 0) {
+                backoff.onFailure();
+            } else {
+                backoff.onSuccess();
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
             setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            // A soft error, the framework retries, but not before the backoff delay.  delayUntil
+            // is a time, in seconds since the epoch, not a delay
+            syncResult.stats.numIoExceptions++;
+            syncResult.delayUntil = (System.currentTimeMillis() + backoff.onFailure()) / 1000;
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
             setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
+            syncResult.stats.numParseExceptions++;
+            backoff.onFailure();
         }
         return;
     }
@@ -277,8 +258,8 @@ implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFail
      * into an Object hierarchy for us.
      */
     private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
+                                        String locationSetting, SyncResult syncResult)
+            throws JSONException, IOException {
 
         // Now we have a String representing the complete forecast in JSON Format.
         // Fortunately parsing is easy:  constructor takes the JSON string and converts it
@@ -328,8 +309,8 @@ implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFail
                         setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
                         return;
                     default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+                        // counted as a server failure by onPerformSync
+                        throw new IOException("OpenWeatherMap error " + errorCode);
                 }
             }
 
@@ -355,14 +336,8 @@ implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFail
             // current day, we're going to take advantage of that to get a nice
             // normalized UTC date for all of our weather.
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
             // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
+            int julianStartDay = DayIndex.julianDay(System.currentTimeMillis());
 
             for(int i = 0; i < weatherArray.length(); i++) {
                 // These are the values that will be collected.
@@ -382,7 +357,7 @@ implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFail
                 JSONObject dayForecast = weatherArray.getJSONObject(i);
 
                 // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+                dateTime = DayIndex.startOfDay(julianStartDay+i);
 
                 pressure = dayForecast.getDouble(OWM_PRESSURE);
                 humidity = dayForecast.getInt(OWM_HUMIDITY);
@@ -423,26 +398,108 @@ implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFail
             if ( cVVector.size() > 0 ) {
                 ContentValues[] cvArray = new ContentValues[cVVector.size()];
                 cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                SyncScheduler.recordChanges(getContext(),
+                        countChangedRows(locationSetting, julianStartDay, cvArray), cvArray.length);
+                syncResult.stats.numInserts += getContext().getContentResolver()
+                        .bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+
+                // move the past days to the history, which keeps the weather rows to the
+                // forecast, and drop the history older than the retention
+                int retentionDays = Utility.getHistoryRetentionDays(getContext());
+                syncResult.stats.numDeletes += getContext().getContentResolver().delete(
+                        WeatherContract.WeatherEntry.buildArchiveUri(
+                                DayIndex.startOfDay(julianStartDay - retentionDays)),
                         WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+                        new String[] {Long.toString(DayIndex.startOfDay(julianStartDay-1))});
+
 
+                ForecastBundle.exportCache(getContext());
 
                 updateWidgets();
                 updateMuzei();
                 sendWeatherToWatchface();
                 notifyWeather();
+
+                if (SyncScheduler.allowsHeavyWork(getContext())) {
+                    prefetchArt(cVVector);
+                }
             }
             Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
+            SyncScheduler.reschedule(getContext(), false);
+            setLastSync(getContext(), locationSetting);
             setLocationStatus(getContext(), LOCATION_STATUS_OK);
 
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
             setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            syncResult.stats.numParseExceptions++;
+        }
+    }
+
+    /**
+     * Counts the new rows whose condition or temperatures differ from the stored ones, or that
+     * are new days, so the scheduler can tell how much the forecast moves between syncs.
+     */
+    private int countChangedRows(String locationSetting, int julianStartDay,
+                                 ContentValues[] newRows) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, DayIndex.startOfDay(julianStartDay)),
+                CHANGE_PROJECTION, null, null, null);
+        if (cursor == null) {
+            return newRows.length;
+        }
+        HashMap<Long, String> stored = new HashMap<Long, String>();
+        try {
+            while (cursor.moveToNext()) {
+                stored.put(cursor.getLong(0), getChangeSignature(cursor.getInt(1),
+                        cursor.getDouble(2), cursor.getDouble(3)));
+            }
+        } finally {
+            cursor.close();
+        }
+        int changed = 0;
+        for (ContentValues row : newRows) {
+            String signature = getChangeSignature(
+                    row.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                    row.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                    row.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+            if (!signature.equals(stored.get(
+                    row.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)))) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    // Temperatures are compared to the degree shown to the user
+    private static String getChangeSignature(int weatherId, double high, double low) {
+        return weatherId + "|" + Math.round(high) + "|" + Math.round(low);
+    }
+
+    /**
+     * Downloads the art of the synced conditions into Glide's disk cache, so the list, the
+     * widgets and the notification do not have to fetch it later, possibly on a metered network.
+     */
+    private void prefetchArt(Vector<ContentValues> rows) {
+        Context context = getContext();
+        if (Utility.usingLocalGraphics(context)) {
+            return;
+        }
+        int size = context.getResources().getDimensionPixelSize(R.dimen.today_icon);
+        HashSet<String> urls = new HashSet<String>();
+        for (ContentValues row : rows) {
+            String url = Utility.getArtUrlForWeatherCondition(context,
+                    row.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+            if (url == null || !urls.add(url)) {
+                continue;
+            }
+            try {
+                Glide.with(context).load(url).downloadOnly(size, size).get();
+            } catch (InterruptedException | ExecutionException e) {
+                Log.e(LOG_TAG, "Error prefetching " + url, e);
+            }
         }
     }
 
@@ -581,44 +638,19 @@ implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFail
      * @return the row ID of the added location.
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+
+        // The provider resolves the location from its registry, and only writes it when it is
+        // new or changed
+        Uri locationUri = getContext().getContentResolver().insert(
                 WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+                locationValues
+        );
+        return ContentUris.parseId(locationUri);
     }
 
     /**
@@ -640,6 +672,16 @@ implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFail
         }
     }
 
+    /**
+     * Schedules the periodic sync, using the long interval when forecast updates are pushed to
+     * this device through GCM.  {@link SyncScheduler} adapts the interval to the conditions.
+     * @param context The context used to access the account service
+     * @param pushEnabled true if the GCM token has been sent to the server
+     */
+    public static void configurePeriodicSync(Context context, boolean pushEnabled) {
+        SyncScheduler.setPushEnabled(context, pushEnabled);
+    }
+
     /**
      * Helper method to have the sync adapter sync immediately
      * @param context The context used to access the account service
@@ -695,7 +737,9 @@ implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFail
         /*
          * Since we've created an account
          */
-        SunshineSyncAdapter.configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SunshineSyncAdapter.configurePeriodicSync(context,
+                sp.getBoolean(MainActivity.SENT_TOKEN_TO_SERVER, false));
 
         /*
          * Without calling setSyncAutomatically, our periodic sync will not be enabled.
@@ -712,6 +756,20 @@ implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFail
         getSyncAccount(context);
     }
 
+    /**
+     * Remembers when the given location was last synced, so requests for data can be answered
+     * from the provider while it is fresh.  Uses commit, so not to be called from the UI thread.
+     * @param c Context to get the PreferenceManager from.
+     * @param locationSetting the location that was synced
+     */
+    static private void setLastSync(Context c, String locationSetting) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        SharedPreferences.Editor spe = sp.edit();
+        spe.putLong(c.getString(R.string.pref_last_sync_key), System.currentTimeMillis());
+        spe.putString(c.getString(R.string.pref_last_sync_location_key), locationSetting);
+        spe.commit();
+    }
+
     /**
      * Sets the location status into shared preference.  This function should not be called from
      * the UI thread because it uses commit to write to the shared preferences.
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Single entry point for on-demand syncs.  A request is answered from the provider when the
+ * stored forecast for the preferred location is fresh enough, joins the sync already running or
+ * requested for that location, and only otherwise starts a new one.  Whatever its origin, the
+ * sync that runs updates the provider, the widgets and the watch for every caller that joined it.
+ */
+public class SyncCoordinator {
+    private static final String LOG_TAG = SyncCoordinator.class.getSimpleName();
+
+    // Age below which a forecast is served without syncing, unless the caller says otherwise
+    public static final long DEFAULT_MAX_AGE_MILLIS = 30 * 60 * 1000;
+
+    // A sync that has not finished after this long is assumed to have died with its process,
+    // or to be held back by the framework which already merges identical pending requests
+    private static final long IN_FLIGHT_TIMEOUT_MILLIS = 2 * 60 * 1000;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({SYNC_SERVED_FRESH, SYNC_JOINED, SYNC_STARTED})
+    public @interface SyncRequestResult {}
+
+    // the stored forecast is fresh, no sync is needed
+    public static final int SYNC_SERVED_FRESH = 0;
+    // a sync for the location is already in flight and will serve this request too
+    public static final int SYNC_JOINED = 1;
+    // a new sync has been requested
+    public static final int SYNC_STARTED = 2;
+
+    private static final Object sLock = new Object();
+    // Start time of the syncs in flight by location setting, guarded by sLock
+    private static final HashMap<String, Long> sInFlight = new HashMap<String, Long>();
+
+    private SyncCoordinator() {
+    }
+
+    /**
+     * Asks for the forecast of the preferred location to be brought up to date.
+     * @param context Context used to read the preferences and request the sync
+     * @param maxAgeMillis age under which the stored forecast is good enough, 0 to always sync
+     * @return how the request is served
+     */
+    @SyncRequestResult
+    public static int requestSync(Context context, long maxAgeMillis) {
+        if (maxAgeMillis > 0 && Utility.isForecastFresh(context, maxAgeMillis)) {
+            Log.d(LOG_TAG, "Forecast fresh, served from the provider");
+            return SYNC_SERVED_FRESH;
+        }
+        String location = Utility.getPreferredLocation(context);
+        synchronized (sLock) {
+            if (isInFlight(location)) {
+                Log.d(LOG_TAG, "Joined the sync in flight for " + location);
+                return SYNC_JOINED;
+            }
+            markInFlight(location);
+        }
+        SunshineSyncAdapter.syncImmediately(context);
+        return SYNC_STARTED;
+    }
+
+    /**
+     * Called by the sync adapter when a sync starts, whoever requested it, so requests made
+     * meanwhile join it.
+     */
+    static void onSyncStarted(String location) {
+        synchronized (sLock) {
+            markInFlight(location);
+        }
+    }
+
+    /**
+     * Called by the sync adapter when the sync of the location ends.  A sync requested meanwhile
+     * for another location, after the preference changed, stays in flight.
+     */
+    static void onSyncFinished(String location) {
+        synchronized (sLock) {
+            sInFlight.remove(location);
+        }
+    }
+
+    /**
+     * Returns true if a sync of the location is in flight, for tests.
+     */
+    static boolean hasSyncInFlight(String location) {
+        synchronized (sLock) {
+            return isInFlight(location);
+        }
+    }
+
+    private static boolean isInFlight(String location) {
+        Long since = sInFlight.get(location);
+        return since != null
+                && SystemClock.elapsedRealtime() - since < IN_FLIGHT_TIMEOUT_MILLIS;
+    }
+
+    private static void markInFlight(String location) {
+        long now = SystemClock.elapsedRealtime();
+        // forget the syncs that timed out, which will never finish
+        for (Iterator<Long> it = sInFlight.values().iterator(); it.hasNext(); ) {
+            if (now - it.next() >= IN_FLIGHT_TIMEOUT_MILLIS) {
+                it.remove();
+            }
+        }
+        sInFlight.put(location, now);
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Chooses how often the periodic sync runs and how much work a sync does, from the conditions
+ * the device is in:
+ * <ul>
+ *     <li>the network: metered connections sync less often and fetch fewer days,</li>
+ *     <li>charging: the heavy work (art prefetch) only runs on an unmetered network while
+ *     charging,</li>
+ *     <li>usage: when the app has not been opened for a day the forecast is fetched less often,</li>
+ *     <li>volatility: the share of forecast rows the recent syncs actually changed.</li>
+ * </ul>
+ * Every decision is logged, and kept in a small file in the app's files so it can be reviewed
+ * afterwards.  The file is written, and the app's own rescheduling done, on a background thread.
+ */
+public class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    private static final String PREFS = "sync_scheduler";
+    private static final String KEY_PUSH_ENABLED = "push_enabled";
+    private static final String KEY_INTERVAL = "interval";
+    private static final String KEY_VOLATILITY = "volatility";
+    private static final String KEY_LAST_FOREGROUND = "last_foreground";
+    private static final String KEY_FORECAST_DAYS = "forecast_days";
+
+    static final int MIN_INTERVAL = 60 * 60;
+    static final int MAX_INTERVAL = 60 * 60 * 24;
+
+    // Days fetched per sync
+    static final int FULL_FORECAST_DAYS = 14;
+    static final int METERED_FORECAST_DAYS = 7;
+
+    // Share of changed rows, averaged over the recent syncs, above or below which the forecast
+    // is considered volatile or stable
+    static final float VOLATILE_THRESHOLD = 0.5f;
+    static final float STABLE_THRESHOLD = 0.1f;
+    // Weight of the last sync in the average
+    private static final float VOLATILITY_WEIGHT = 0.3f;
+
+    private static final long IDLE_MILLIS = 24 * 60 * 60 * 1000;
+
+    static final String LOG_FILE = "sync_decisions.log";
+    private static final long MAX_LOG_SIZE = 32 * 1024;
+
+    // Writes the decision log and reschedules for the UI, one task after the other
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    private SyncScheduler() {
+    }
+
+    /**
+     * Remembers whether GCM pushes forecast changes, in which case the periodic sync is only a
+     * safety net, and reschedules.
+     */
+    public static void setPushEnabled(Context context, boolean pushEnabled) {
+        getPrefs(context).edit().putBoolean(KEY_PUSH_ENABLED, pushEnabled).apply();
+        reschedule(context, true);
+    }
+
+    /**
+     * Called when the app is shown, reschedules if the app was idle long enough to have had its
+     * syncs slowed down.  Returns at once, the preferences and the sync account are accessed on
+     * a background thread.
+     */
+    public static void onAppForeground(Context context) {
+        final Context appContext = context.getApplicationContext();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                SharedPreferences prefs = getPrefs(appContext);
+                long lastForeground = prefs.getLong(KEY_LAST_FOREGROUND, 0);
+                long now = System.currentTimeMillis();
+                prefs.edit().putLong(KEY_LAST_FOREGROUND, now).apply();
+                // on the first run the periodic sync is set up with the sync account, once the
+                // first screen is drawn
+                if (lastForeground != 0 && now - lastForeground > IDLE_MILLIS) {
+                    reschedule(appContext, false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Records how many of the rows a sync stored differ from the ones they replaced.
+     */
+    public static void recordChanges(Context context, int changed, int total) {
+        if (total <= 0) {
+            return;
+        }
+        SharedPreferences prefs = getPrefs(context);
+        float last = (float) changed / total;
+        float volatility = prefs.contains(KEY_VOLATILITY)
+                ? VOLATILITY_WEIGHT * last
+                        + (1 - VOLATILITY_WEIGHT) * prefs.getFloat(KEY_VOLATILITY, 0)
+                : last;
+        prefs.edit().putFloat(KEY_VOLATILITY, volatility).apply();
+        logDecision(context, "sync changed " + changed + "/" + total
+                + " rows, volatility " + String.format(Locale.US, "%.2f", volatility));
+    }
+
+    /**
+     * Picks the periodic sync interval for the current conditions and applies it if it differs
+     * from the one in place.
+     * @param force apply the interval even if it did not change
+     */
+    public static void reschedule(Context context, boolean force) {
+        SharedPreferences prefs = getPrefs(context);
+        boolean pushEnabled = prefs.getBoolean(KEY_PUSH_ENABLED, false);
+        StringBuilder reasons = new StringBuilder();
+        int interval = computeInterval(pushEnabled, isUnmetered(context), isCharging(context),
+                isIdle(prefs), prefs.getFloat(KEY_VOLATILITY, -1), reasons);
+        if (!force && interval == prefs.getInt(KEY_INTERVAL, 0)) {
+            return;
+        }
+        prefs.edit().putInt(KEY_INTERVAL, interval).apply();
+        logDecision(context, "interval " + interval / 60 + "min (" + reasons + ")");
+        SunshineSyncAdapter.configurePeriodicSync(context, interval, interval / 3);
+    }
+
+    /**
+     * Returns the sync interval in seconds, and appends the reasons for it.
+     * @param volatility average share of changed rows, negative if unknown
+     */
+    static int computeInterval(boolean pushEnabled, boolean unmetered, boolean charging,
+                               boolean idle, float volatility, StringBuilder reasons) {
+        int interval;
+        if (pushEnabled) {
+            interval = SunshineSyncAdapter.PUSH_SYNC_INTERVAL;
+            reasons.append("push");
+        } else {
+            interval = SunshineSyncAdapter.SYNC_INTERVAL;
+            reasons.append("polling");
+        }
+        if (volatility >= VOLATILE_THRESHOLD) {
+            interval = interval * 2 / 3;
+            reasons.append(", volatile");
+        } else if (volatility >= 0 && volatility < STABLE_THRESHOLD) {
+            interval *= 2;
+            reasons.append(", stable");
+        }
+        if (idle) {
+            interval *= 2;
+            reasons.append(", idle");
+        }
+        if (!unmetered && !charging) {
+            interval = interval * 3 / 2;
+            reasons.append(", metered");
+        }
+        return Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+    }
+
+    /**
+     * Returns how many days the next sync should fetch.  Only a change of that number is logged.
+     */
+    public static int getForecastDays(Context context) {
+        SharedPreferences prefs = getPrefs(context);
+        int days = isUnmetered(context) || !isIdle(prefs)
+                ? FULL_FORECAST_DAYS : METERED_FORECAST_DAYS;
+        if (days != prefs.getInt(KEY_FORECAST_DAYS, FULL_FORECAST_DAYS)) {
+            prefs.edit().putInt(KEY_FORECAST_DAYS, days).apply();
+            logDecision(context, "fetching " + days + " days"
+                    + (days == FULL_FORECAST_DAYS ? "" : " (metered, idle)"));
+        }
+        return days;
+    }
+
+    /**
+     * Returns true if work that is not needed to show the forecast, like prefetching art, may
+     * run now: on an unmetered network while charging.
+     */
+    public static boolean allowsHeavyWork(Context context) {
+        boolean allowed = isUnmetered(context) && isCharging(context);
+        logDecision(context, allowed ? "heavy work allowed" : "heavy work deferred");
+        return allowed;
+    }
+
+    private static boolean isUnmetered(Context context) {
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        return activeNetwork != null && activeNetwork.isConnected()
+                && !ConnectivityManagerCompat.isActiveNetworkMetered(cm);
+    }
+
+    private static boolean isCharging(Context context) {
+        // The battery state is sticky, no receiver is actually registered
+        Intent battery = context.getApplicationContext().registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    private static boolean isIdle(SharedPreferences prefs) {
+        long lastForeground = prefs.getLong(KEY_LAST_FOREGROUND, 0);
+        return lastForeground != 0 && System.currentTimeMillis() - lastForeground > IDLE_MILLIS;
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+
+    private static void logDecision(Context context, final String decision) {
+        Log.i(LOG_TAG, decision);
+        final Context appContext = context.getApplicationContext();
+        final Date time = new Date();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeDecision(appContext, time, decision);
+            }
+        });
+    }
+
+    // Runs on sExecutor only, so the writes never interleave
+    private static void writeDecision(Context context, Date time, String decision) {
+        File file = new File(context.getFilesDir(), LOG_FILE);
+        if (file.length() > MAX_LOG_SIZE) {
+            // keep one older generation around
+            file.renameTo(new File(context.getFilesDir(), LOG_FILE + ".1"));
+        }
+        FileWriter writer = null;
+        try {
+            writer = new FileWriter(file, true);
+            writer.write(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(time)
+                    + " " + decision + "\n");
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing the decision log", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastRepository;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes the forecast for the preferred location to the wearable data layer, so the watch face
+ * can show today's weather as well as the upcoming days without asking the phone again.
+ */
+public class WearableForecastPublisher {
+    private static final String LOG_TAG = WearableForecastPublisher.class.getSimpleName();
+
+    public static final String PATH_WEATHER = "/sunshine-weather";
+
+    // Keys of the summary for today, kept for watch faces that only know about today
+    public static final String KEY_WEATHER_ID = "weather_id";
+    public static final String KEY_HIGH = "high";
+    public static final String KEY_LOW = "low";
+
+    // The full forecast, one DataMap per day ordered by date
+    public static final String KEY_FORECAST = "forecast";
+    public static final String KEY_DATE = "date";
+
+    // When the phone last fetched this forecast, lets the watch decide when to ask again
+    public static final String KEY_SYNCED_AT = "synced_at";
+
+    // Units the watch should display, the forecast itself is always sent in metric
+    public static final String PATH_UNITS = "/sunshine-units";
+    public static final String KEY_METRIC = "metric";
+
+    // Message path the watch uses to ask for fresh data
+    public static final String PATH_REFRESH = "/sunshine-refresh";
+
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
+
+    private WearableForecastPublisher() {
+    }
+
+    /**
+     * Connects to the data layer with a client of its own and publishes the forecast.  Blocks
+     * while connecting, so it must not be called from the UI thread.
+     *
+     * @param context Context used to read the forecast
+     */
+    public static void publishForecastBlocking(Context context) {
+        GoogleApiClient googleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+        ConnectionResult result =
+                googleApiClient.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (!result.isSuccess()) {
+            Log.d(LOG_TAG, "Could not connect to the data layer: " + result);
+            return;
+        }
+        try {
+            publishForecast(context, googleApiClient);
+        } finally {
+            googleApiClient.disconnect();
+        }
+    }
+
+    /**
+     * Tells the watch which units to display.  The watch converts the data it already has, so a
+     * units change does not need the forecast to be sent again.  Does not block, it may be called
+     * from the UI thread.
+     *
+     * @param context Context used to read the units preference
+     */
+    public static void publishUnits(Context context) {
+        final boolean metric = Utility.isMetric(context);
+        final GoogleApiClient googleApiClient =
+                new GoogleApiClient.Builder(context.getApplicationContext())
+                        .addApi(Wearable.API)
+                        .build();
+        googleApiClient.registerConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
+            @Override
+            public void onConnected(Bundle bundle) {
+                putUnits(googleApiClient, metric).setResultCallback(
+                        new ResultCallback<DataApi.DataItemResult>() {
+                            @Override
+                            public void onResult(DataApi.DataItemResult dataItemResult) {
+                                googleApiClient.disconnect();
+                            }
+                        });
+            }
+
+            @Override
+            public void onConnectionSuspended(int i) {
+            }
+        });
+        googleApiClient.registerConnectionFailedListener(
+                new GoogleApiClient.OnConnectionFailedListener() {
+                    @Override
+                    public void onConnectionFailed(ConnectionResult connectionResult) {
+                        Log.d(LOG_TAG, "Could not connect to the data layer: " + connectionResult);
+                    }
+                });
+        googleApiClient.connect();
+    }
+
+    private static PendingResult<DataApi.DataItemResult> putUnits(
+            GoogleApiClient googleApiClient, boolean metric) {
+        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(PATH_UNITS);
+        putDataMapRequest.getDataMap().putBoolean(KEY_METRIC, metric);
+        return Wearable.DataApi.putDataItem(googleApiClient, putDataMapRequest.asPutDataRequest());
+    }
+
+    /**
+     * Reads the forecast for the preferred location starting today and puts it into the data
+     * layer.  Does nothing if there is no data for today yet.
+     *
+     * @param context Context used to access the forecast repository
+     * @param googleApiClient a client with the Wearable API added
+     */
+    public static void publishForecast(Context context, GoogleApiClient googleApiClient) {
+        if (googleApiClient == null) {
+            return;
+        }
+
+        String locationQuery = Utility.getPreferredLocation(context);
+        ForecastRepository.Forecast forecast =
+                ForecastRepository.getInstance(context).getForecast(locationQuery);
+        if (forecast == null || forecast.isEmpty()) {
+            return;
+        }
+
+        final PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(PATH_WEATHER);
+        DataMap dataMap = putDataMapRequest.getDataMap();
+        ForecastRepository.Day today = forecast.get(0);
+        dataMap.putInt(KEY_WEATHER_ID, today.weatherId);
+        dataMap.putDouble(KEY_HIGH, today.maxTemp);
+        dataMap.putDouble(KEY_LOW, today.minTemp);
+
+        ArrayList<DataMap> days = new ArrayList<DataMap>(forecast.size());
+        for (ForecastRepository.Day forecastDay : forecast.getDays()) {
+            DataMap day = new DataMap();
+            day.putLong(KEY_DATE, forecastDay.date);
+            day.putInt(KEY_WEATHER_ID, forecastDay.weatherId);
+            day.putDouble(KEY_HIGH, forecastDay.maxTemp);
+            day.putDouble(KEY_LOW, forecastDay.minTemp);
+            days.add(day);
+        }
+        dataMap.putDataMapArrayList(KEY_FORECAST, days);
+        dataMap.putLong(KEY_SYNCED_AT, Utility.getLastSyncTime(context));
+
+        // Unchanged units do not reach the watch again, this is cheap
+        putUnits(googleApiClient, Utility.isMetric(context));
+
+        PutDataRequest putDataRequest = putDataMapRequest.asPutDataRequest();
+        Wearable.DataApi.putDataItem(googleApiClient, putDataRequest).setResultCallback(
+                new ResultCallback<DataApi.DataItemResult>() {
+                    @Override
+                    public void onResult(DataApi.DataItemResult dataItemResult) {
+                        if (!dataItemResult.getStatus().isSuccess()) {
+                            Log.d(LOG_TAG, "DataMap: sending error");
+                        } else {
+                            Log.d(LOG_TAG, "DataMap: " + putDataMapRequest.getDataMap() + " sent succesfully");
+                        }
+                    }
+                }
+        );
+    }
+}
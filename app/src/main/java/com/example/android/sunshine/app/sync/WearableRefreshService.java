@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.WearableListenerService;
+
+/**
+ * Answers refresh requests sent by the watch face.  If the forecast in the provider is fresh
+ * enough it is simply published again, otherwise a sync is requested through the
+ * {@link SyncCoordinator}, so requests coming from several watches or repeated taps join the sync
+ * in flight, which publishes its result to every connected watch anyway.  The watches may ask
+ * for a sync at most once every {@link #MIN_SYNC_REQUEST_INTERVAL_MILLIS}, even when the syncs
+ * fail or the location is not found and the forecast never becomes fresh.
+ */
+public class WearableRefreshService extends WearableListenerService {
+    private static final String LOG_TAG = WearableRefreshService.class.getSimpleName();
+
+    // Data synced less than an hour ago is served from the provider
+    private static final long MAX_FORECAST_AGE_MILLIS = 60 * 60 * 1000;
+
+    // At most one sync every five minutes on behalf of the watches
+    private static final long MIN_SYNC_REQUEST_INTERVAL_MILLIS = 5 * 60 * 1000;
+
+    private static final Object sLock = new Object();
+
+    @Override
+    public void onMessageReceived(MessageEvent messageEvent) {
+        if (!WearableForecastPublisher.PATH_REFRESH.equals(messageEvent.getPath())) {
+            return;
+        }
+        Log.d(LOG_TAG, "Refresh requested by " + messageEvent.getSourceNodeId());
+
+        if (Utility.isForecastFresh(this, MAX_FORECAST_AGE_MILLIS)) {
+            // called on the listener's background thread, so it is fine to block
+            WearableForecastPublisher.publishForecastBlocking(this);
+        } else if (acquireSyncRequest(this)) {
+            SyncCoordinator.requestSync(this, 0);
+        } else {
+            Log.d(LOG_TAG, "Refresh coalesced with a recent sync request");
+        }
+    }
+
+    /**
+     * Returns true if the caller may request a sync now, and records the request.  The time is
+     * kept in the preferences so the limit holds even if the service is restarted in between.
+     */
+    private static boolean acquireSyncRequest(Context context) {
+        synchronized (sLock) {
+            SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+            String key = context.getString(R.string.pref_last_refresh_request_key);
+            long now = System.currentTimeMillis();
+            long lastRequest = sp.getLong(key, 0);
+            if (now >= lastRequest && now - lastRequest < MIN_SYNC_REQUEST_INTERVAL_MILLIS) {
+                return false;
+            }
+            sp.edit().putLong(key, now).commit();
+            return true;
+        }
+    }
+}
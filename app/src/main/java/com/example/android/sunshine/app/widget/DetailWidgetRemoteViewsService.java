@@ -2,23 +2,27 @@ package com.example.android.sunshine.app.widget;
 
 import android.annotation.TargetApi;
 import android.content.Intent;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
-import android.os.Binder;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.SparseArray;
 import android.widget.AdapterView;
 import android.widget.RemoteViews;
 import android.widget.RemoteViewsService;
 
 import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.target.Target;
+import com.bumptech.glide.request.FutureTarget;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastRepository;
 import com.example.android.sunshine.app.data.WeatherContract;
 
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * RemoteViewsService controlling the data being shown in the scrollable weather detail widget
@@ -26,26 +30,31 @@ import java.util.concurrent.ExecutionException;
 @TargetApi(Build.VERSION_CODES.HONEYCOMB)
 public class DetailWidgetRemoteViewsService extends RemoteViewsService {
     public final String LOG_TAG = DetailWidgetRemoteViewsService.class.getSimpleName();
-    private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
-            WeatherContract.WeatherEntry.COLUMN_DATE,
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
-    };
-    // these indices must match the projection
-    static final int INDEX_WEATHER_ID = 0;
-    static final int INDEX_WEATHER_DATE = 1;
-    static final int INDEX_WEATHER_CONDITION_ID = 2;
-    static final int INDEX_WEATHER_DESC = 3;
-    static final int INDEX_WEATHER_MAX_TEMP = 4;
-    static final int INDEX_WEATHER_MIN_TEMP = 5;
+    // Total time onDataSetChanged may spend waiting for the art of the whole list
+    private static final long IMAGE_LOAD_BUDGET_MILLIS = 2000;
+
+    // Bumped when the forecast in the provider changes.  When the list is refreshed for another
+    // reason (units or art pack change) the rows already read are rendered again without a query.
+    private static final AtomicInteger sDataGeneration = new AtomicInteger();
+
+    /**
+     * Marks the rows read by the factories as out of date.
+     */
+    static void onDataUpdated() {
+        sDataGeneration.incrementAndGet();
+    }
 
     @Override
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
         return new RemoteViewsFactory() {
-            private Cursor data = null;
+            // The rows are fully built in onDataSetChanged, getViewAt only looks them up
+            private RemoteViews[] rowViews = new RemoteViews[0];
+            private long[] rowIds = new long[0];
+
+            // The forecast as read from the repository
+            private int loadedGeneration = -1;
+            private String loadedLocation;
+            private ForecastRepository.Forecast forecast;
 
             @Override
             public void onCreate() {
@@ -54,68 +63,97 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public void onDataSetChanged() {
-                if (data != null) {
-                    data.close();
-                }
-                // This method is called by the app hosting the widget (e.g., the launcher)
-                // However, our ContentProvider is not exported so it doesn't have access to the
-                // data. Therefore we need to clear (and finally restore) the calling identity so
-                // that calls use our process and permission
-                final long identityToken = Binder.clearCallingIdentity();
                 String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
-                Uri weatherForLocationUri = WeatherContract.WeatherEntry
-                        .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
-                data = getContentResolver().query(weatherForLocationUri,
-                        FORECAST_COLUMNS,
-                        null,
-                        null,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-                Binder.restoreCallingIdentity(identityToken);
-            }
-
-            @Override
-            public void onDestroy() {
-                if (data != null) {
-                    data.close();
-                    data = null;
+                int generation = sDataGeneration.get();
+                // after midnight the forecast read the day before starts with a past day
+                boolean stale = forecast != null && forecast.size() > 0 && forecast.get(0).date
+                        < WeatherContract.normalizeDate(System.currentTimeMillis());
+                if (generation != loadedGeneration || !location.equals(loadedLocation) || stale) {
+                    // This method is called by the app hosting the widget (e.g., the launcher),
+                    // the repository reads our provider on its own thread, with our identity
+                    forecast = ForecastRepository.getInstance(DetailWidgetRemoteViewsService.this)
+                            .getForecast(location);
+                    if (forecast == null) {
+                        rowViews = new RemoteViews[0];
+                        rowIds = new long[0];
+                        loadedGeneration = -1;
+                        return;
+                    }
+                    loadedGeneration = generation;
+                    loadedLocation = location;
                 }
-            }
 
-            @Override
-            public int getCount() {
-                return data == null ? 0 : data.getCount();
+                int count = forecast.size();
+                int[] weatherIds = new int[count];
+                for (int i = 0; i < count; i++) {
+                    weatherIds[i] = forecast.get(i).weatherId;
+                }
+                SparseArray<Bitmap> art = loadArt(weatherIds);
+
+                RemoteViews[] views = new RemoteViews[count];
+                long[] ids = new long[count];
+                for (int i = 0; i < count; i++) {
+                    ForecastRepository.Day day = forecast.get(i);
+                    views[i] = buildRow(location, day.date, day.weatherId, day.shortDesc,
+                            day.maxTemp, day.minTemp, art.get(day.weatherId));
+                    ids[i] = day.id;
+                }
+                rowViews = views;
+                rowIds = ids;
             }
 
-            @Override
-            public RemoteViews getViewAt(int position) {
-                if (position == AdapterView.INVALID_POSITION ||
-                        data == null || !data.moveToPosition(position)) {
-                    return null;
+            /**
+             * Starts loading the art of every distinct condition at once, then waits for them
+             * within {@link #IMAGE_LOAD_BUDGET_MILLIS}.  Conditions whose art is not there in
+             * time are missing from the result and fall back to the local icons.
+             */
+            private SparseArray<Bitmap> loadArt(int[] weatherIds) {
+                SparseArray<Bitmap> art = new SparseArray<Bitmap>();
+                if (Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this)) {
+                    return art;
                 }
-                RemoteViews views = new RemoteViews(getPackageName(),
-                        R.layout.widget_detail_list_item);
-                int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
-                int weatherArtResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
-                Bitmap weatherArtImage = null;
-                if ( !Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this) ) {
+                int iconSize = getResources().getDimensionPixelSize(R.dimen.list_icon);
+                SparseArray<FutureTarget<Bitmap>> requests = new SparseArray<FutureTarget<Bitmap>>();
+                for (int weatherId : weatherIds) {
+                    if (requests.indexOfKey(weatherId) >= 0) {
+                        continue;
+                    }
                     String weatherArtResourceUrl = Utility.getArtUrlForWeatherCondition(
                             DetailWidgetRemoteViewsService.this, weatherId);
+                    requests.put(weatherId, Glide.with(DetailWidgetRemoteViewsService.this)
+                            .load(weatherArtResourceUrl)
+                            .asBitmap()
+                            .into(iconSize, iconSize));
+                }
+
+                long deadline = SystemClock.elapsedRealtime() + IMAGE_LOAD_BUDGET_MILLIS;
+                for (int i = 0; i < requests.size(); i++) {
+                    FutureTarget<Bitmap> request = requests.valueAt(i);
+                    long remaining = deadline - SystemClock.elapsedRealtime();
                     try {
-                        weatherArtImage = Glide.with(DetailWidgetRemoteViewsService.this)
-                                .load(weatherArtResourceUrl)
-                                .asBitmap()
-                                .error(weatherArtResourceId)
-                                .into(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL).get();
+                        if (remaining > 0) {
+                            art.put(requests.keyAt(i),
+                                    request.get(remaining, TimeUnit.MILLISECONDS));
+                        } else {
+                            request.cancel(true);
+                        }
                     } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + weatherArtResourceUrl, e);
+                        Log.e(LOG_TAG, "Error retrieving art for " + requests.keyAt(i), e);
+                    } catch (TimeoutException e) {
+                        Log.d(LOG_TAG, "Art for " + requests.keyAt(i) + " not loaded in time");
+                        request.cancel(true);
                     }
                 }
-                String description = data.getString(INDEX_WEATHER_DESC);
-                long dateInMillis = data.getLong(INDEX_WEATHER_DATE);
+                return art;
+            }
+
+            private RemoteViews buildRow(String locationSetting, long dateInMillis, int weatherId,
+                                         String description, double maxTemp, double minTemp,
+                                         Bitmap weatherArtImage) {
+                RemoteViews views = new RemoteViews(getPackageName(),
+                        R.layout.widget_detail_list_item);
                 String formattedDate = Utility.getFriendlyDayString(
                         DetailWidgetRemoteViewsService.this, dateInMillis, false);
-                double maxTemp = data.getDouble(INDEX_WEATHER_MAX_TEMP);
-                double minTemp = data.getDouble(INDEX_WEATHER_MIN_TEMP);
                 String formattedMaxTemperature =
                         Utility.formatTemperature(DetailWidgetRemoteViewsService.this, maxTemp);
                 String formattedMinTemperature =
@@ -123,7 +161,8 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                 if (weatherArtImage != null) {
                     views.setImageViewBitmap(R.id.widget_icon, weatherArtImage);
                 } else {
-                    views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
+                    views.setImageViewResource(R.id.widget_icon,
+                            Utility.getIconResourceForWeatherCondition(weatherId));
                 }
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
                     setRemoteContentDescription(views, description);
@@ -134,8 +173,6 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                 views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
 
                 final Intent fillInIntent = new Intent();
-                String locationSetting =
-                        Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
                 Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
                         locationSetting,
                         dateInMillis);
@@ -144,6 +181,27 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                 return views;
             }
 
+            @Override
+            public void onDestroy() {
+                rowViews = new RemoteViews[0];
+                rowIds = new long[0];
+                forecast = null;
+                loadedGeneration = -1;
+            }
+
+            @Override
+            public int getCount() {
+                return rowViews.length;
+            }
+
+            @Override
+            public RemoteViews getViewAt(int position) {
+                if (position == AdapterView.INVALID_POSITION || position >= rowViews.length) {
+                    return null;
+                }
+                return rowViews[position];
+            }
+
             @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
             private void setRemoteContentDescription(RemoteViews views, String description) {
                 views.setContentDescription(R.id.widget_icon, description);
@@ -161,8 +219,8 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public long getItemId(int position) {
-                if (data.moveToPosition(position))
-                    return data.getLong(INDEX_WEATHER_ID);
+                if (position >= 0 && position < rowIds.length)
+                    return rowIds[position];
                 return position;
             }
 
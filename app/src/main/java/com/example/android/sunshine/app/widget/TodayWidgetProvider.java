@@ -27,27 +27,33 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 /**
  * Provider for a horizontally expandable widget showing today's weather.
  *
- * Delegates widget updating to {@link TodayWidgetIntentService} to ensure that
+ * Delegates widget updating to {@link WidgetUpdateService} to ensure that
  * data retrieval is done on a background thread
  */
 public class TodayWidgetProvider extends AppWidgetProvider {
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
-        context.startService(new Intent(context, TodayWidgetIntentService.class));
+        // The host may have lost our views, push them even if nothing changed
+        WidgetUpdateService.startForcedUpdate(context);
     }
 
     @Override
     public void onAppWidgetOptionsChanged(Context context, AppWidgetManager appWidgetManager,
                                           int appWidgetId, Bundle newOptions) {
-        context.startService(new Intent(context, TodayWidgetIntentService.class));
+        WidgetUpdateScheduler.scheduleUpdate(context);
+    }
+
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        WidgetUpdateService.forgetWidgets(context, appWidgetIds);
     }
 
     @Override
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
         if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
-            context.startService(new Intent(context, TodayWidgetIntentService.class));
+            WidgetUpdateScheduler.scheduleUpdate(context);
         }
     }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.SystemClock;
+
+/**
+ * Debounces widget updates.  Every trigger (data updated broadcast, settings change...) pushes a
+ * single pending alarm a little further, so a burst of triggers results in one run of
+ * {@link WidgetUpdateService}.  An update is never postponed for longer than
+ * {@link #MAX_DELAY_MILLIS} after the first trigger of a burst.
+ */
+public class WidgetUpdateScheduler {
+    // Quiet time to wait for after the last trigger
+    private static final long DEBOUNCE_MILLIS = 1000;
+    // Upper bound on how long a burst of triggers can hold back an update
+    private static final long MAX_DELAY_MILLIS = 5000;
+
+    // Elapsed time of the first trigger not handled yet, 0 when nothing is pending
+    private static long sFirstPendingTrigger;
+
+    private WidgetUpdateScheduler() {
+    }
+
+    /**
+     * Schedules an update of all the widgets, coalesced with the other pending triggers.
+     * @param context Context used to access the AlarmManager
+     */
+    public static synchronized void scheduleUpdate(Context context) {
+        long now = SystemClock.elapsedRealtime();
+        if (sFirstPendingTrigger == 0 || now - sFirstPendingTrigger > MAX_DELAY_MILLIS) {
+            sFirstPendingTrigger = now;
+        }
+        long triggerAt = Math.min(now + DEBOUNCE_MILLIS, sFirstPendingTrigger + MAX_DELAY_MILLIS);
+
+        // Setting an alarm with an equal PendingIntent replaces the previous one
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent pendingIntent = PendingIntent.getService(context, 0,
+                new Intent(context, WidgetUpdateService.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            setExact(alarmManager, triggerAt, pendingIntent);
+        } else {
+            alarmManager.set(AlarmManager.ELAPSED_REALTIME, triggerAt, pendingIntent);
+        }
+    }
+
+    /**
+     * Called by the service when it starts rendering, triggers from now on start a new burst.
+     */
+    static synchronized void onUpdateStarted() {
+        sFirstPendingTrigger = 0;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void setExact(AlarmManager alarmManager, long triggerAt,
+                                 PendingIntent pendingIntent) {
+        alarmManager.setExact(AlarmManager.ELAPSED_REALTIME, triggerAt, pendingIntent);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.annotation.TargetApi;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.TypedValue;
+import android.widget.RemoteViews;
+
+import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastRepository;
+
+/**
+ * Renders all the Sunshine widgets in one pass.  The forecast is read once for every widget,
+ * and the rendered content of each widget is summed up in a signature remembered across runs, so
+ * only widgets whose content really changed get new RemoteViews.  The detail widget's list is
+ * only invalidated when the content of the list changed.
+ *
+ * Triggers should go through {@link WidgetUpdateScheduler} so bursts are coalesced.
+ */
+public class WidgetUpdateService extends IntentService {
+    private static final String LOG_TAG = WidgetUpdateService.class.getSimpleName();
+
+    // Pushes the today widgets even if their content did not change, e.g. a newly added widget
+    private static final String EXTRA_FORCE = "force";
+
+    private static final String SIGNATURES_PREFS = "widget_signatures";
+    private static final String KEY_TODAY_PREFIX = "today_";
+    private static final String KEY_DETAIL_LIST = "detail_list";
+
+    public WidgetUpdateService() {
+        super("WidgetUpdateService");
+    }
+
+    /**
+     * Renders the today widgets right away, without waiting for the debounce delay and without
+     * skipping unchanged widgets.
+     */
+    public static void startForcedUpdate(Context context) {
+        context.startService(new Intent(context, WidgetUpdateService.class)
+                .putExtra(EXTRA_FORCE, true));
+    }
+
+    /**
+     * Drops the remembered content of deleted widgets.
+     */
+    public static void forgetWidgets(Context context, int[] appWidgetIds) {
+        SharedPreferences.Editor editor =
+                context.getSharedPreferences(SIGNATURES_PREFS, Context.MODE_PRIVATE).edit();
+        for (int appWidgetId : appWidgetIds) {
+            editor.remove(KEY_TODAY_PREFIX + appWidgetId);
+        }
+        editor.apply();
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        WidgetUpdateScheduler.onUpdateStarted();
+        boolean force = intent != null && intent.getBooleanExtra(EXTRA_FORCE, false);
+
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(this);
+        int[] todayWidgetIds = appWidgetManager.getAppWidgetIds(
+                new ComponentName(this, TodayWidgetProvider.class));
+        int[] detailWidgetIds = appWidgetManager.getAppWidgetIds(
+                new ComponentName(this, DetailWidgetProvider.class));
+        if (todayWidgetIds.length == 0 && detailWidgetIds.length == 0) {
+            return;
+        }
+
+        // Get the forecast from the repository, once for all the widgets, and shared with the
+        // other consumers woken by the same sync
+        String location = Utility.getPreferredLocation(this);
+        ForecastRepository.Forecast data =
+                ForecastRepository.getInstance(this).getForecast(location);
+        if (data == null) {
+            return;
+        }
+
+        SharedPreferences signatures = getSharedPreferences(SIGNATURES_PREFS, MODE_PRIVATE);
+        SharedPreferences.Editor editor = signatures.edit();
+        try {
+            if (todayWidgetIds.length > 0 && !data.isEmpty()) {
+                updateTodayWidgets(appWidgetManager, todayWidgetIds, data.get(0), signatures,
+                        editor, force);
+            }
+            if (detailWidgetIds.length > 0) {
+                String listSignature = getListSignature(data);
+                if (!listSignature.equals(signatures.getString(KEY_DETAIL_LIST, null))) {
+                    editor.putString(KEY_DETAIL_LIST, listSignature);
+                    appWidgetManager.notifyAppWidgetViewDataChanged(detailWidgetIds,
+                            R.id.widget_list);
+                } else {
+                    Log.d(LOG_TAG, "Detail widget list unchanged");
+                }
+            }
+        } finally {
+            editor.apply();
+        }
+    }
+
+    private void updateTodayWidgets(AppWidgetManager appWidgetManager, int[] appWidgetIds,
+                                    ForecastRepository.Day today,
+                                    SharedPreferences signatures,
+                                    SharedPreferences.Editor editor, boolean force) {
+        int weatherId = today.weatherId;
+        int weatherArtResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        String description = today.shortDesc;
+        double maxTemp = today.maxTemp;
+        double minTemp = today.minTemp;
+        String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp);
+        String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
+        String contentSignature = weatherArtResourceId + "|" + description + "|"
+                + formattedMaxTemperature + "|" + formattedMinTemperature;
+
+        // Perform this loop procedure for each Today widget
+        for (int appWidgetId : appWidgetIds) {
+            // Find the correct layout based on the widget's width
+            int widgetWidth = getWidgetWidth(appWidgetManager, appWidgetId);
+            int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+            int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
+            int layoutId;
+            if (widgetWidth >= largeWidth) {
+                layoutId = R.layout.widget_today_large;
+            } else if (widgetWidth >= defaultWidth) {
+                layoutId = R.layout.widget_today;
+            } else {
+                layoutId = R.layout.widget_today_small;
+            }
+
+            // Skip the widget if it already shows exactly this
+            String key = KEY_TODAY_PREFIX + appWidgetId;
+            String signature = layoutId + "|" + contentSignature;
+            if (!force && signature.equals(signatures.getString(key, null))) {
+                continue;
+            }
+            editor.putString(key, signature);
+
+            RemoteViews views = new RemoteViews(getPackageName(), layoutId);
+
+            // Add the data to the RemoteViews
+            views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
+            // Content Descriptions for RemoteViews were only added in ICS MR1
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+                setRemoteContentDescription(views, description);
+            }
+            views.setTextViewText(R.id.widget_description, description);
+            views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
+            views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
+
+            // Create an Intent to launch MainActivity
+            Intent launchIntent = new Intent(this, MainActivity.class);
+            PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
+            views.setOnClickPendingIntent(R.id.widget, pendingIntent);
+
+            // Tell the AppWidgetManager to perform an update on the current app widget
+            appWidgetManager.updateAppWidget(appWidgetId, views);
+        }
+    }
+
+    /**
+     * Sums up what the detail widget list shows: the same strings and images as
+     * DetailWidgetRemoteViewsService puts in each row.
+     */
+    private String getListSignature(ForecastRepository.Forecast data) {
+        boolean localGraphics = Utility.usingLocalGraphics(this);
+        StringBuilder signature = new StringBuilder();
+        for (ForecastRepository.Day day : data.getDays()) {
+            int weatherId = day.weatherId;
+            signature.append(Utility.getFriendlyDayString(this, day.date, false))
+                    .append('|').append(localGraphics
+                            ? Utility.getIconResourceForWeatherCondition(weatherId)
+                            : Utility.getArtUrlForWeatherCondition(this, weatherId))
+                    .append('|').append(day.shortDesc)
+                    .append('|').append(Utility.formatTemperature(this, day.maxTemp))
+                    .append('|').append(Utility.formatTemperature(this, day.minTemp))
+                    .append('\n');
+        }
+        return signature.toString();
+    }
+
+    private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId) {
+        // Prior to Jelly Bean, widgets were always their default size
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+        }
+        // For Jelly Bean and higher devices, widgets can be resized - the current size can be
+        // retrieved from the newly added App Widget Options
+        return getWidgetWidthFromOptions(appWidgetManager, appWidgetId);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private int getWidgetWidthFromOptions(AppWidgetManager appWidgetManager, int appWidgetId) {
+        Bundle options = appWidgetManager.getAppWidgetOptions(appWidgetId);
+        if (options.containsKey(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH)) {
+            int minWidthDp = options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH);
+            // The width returned is in dp, but we'll convert it to pixels to match the other widths
+            DisplayMetrics displayMetrics = getResources().getDisplayMetrics();
+            return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, minWidthDp,
+                    displayMetrics);
+        }
+        return  getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
+    private void setRemoteContentDescription(RemoteViews views, String description) {
+        views.setContentDescription(R.id.widget_icon, description);
+    }
+}
@@ -0,0 +1,262 @@
+package com.example.android.sunshine.app;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.text.format.DateUtils;
+import android.util.SparseArray;
+
+import com.squirrel.app.R;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Pre-rasterized forecast cells for the watch face.  Every day of the {@link ForecastStore} is
+ * drawn once (icon, day name, high and low) into a column of cells, one atlas for interactive
+ * mode and one for ambient mode.  Showing another day then only costs a single bitmap blit.
+ *
+ * The atlases are rebuilt lazily on the next draw after the data or the text style changed.
+ */
+public class ForecastAtlas {
+    private static final Typeface NORMAL_TYPEFACE =
+            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
+    private static final Typeface BOLD_TYPEFACE =
+            Typeface.create(Typeface.SANS_SERIF, Typeface.BOLD);
+
+    private final Resources mResources;
+
+    // Icons decoded once per weather condition, shared by all the days using them
+    private final SparseArray<Bitmap> mIconGlyphs = new SparseArray<Bitmap>();
+
+    private final Paint mHighPaint = new Paint();
+    private final Paint mLowPaint = new Paint();
+    private final Paint mLabelPaint = new Paint();
+    private final Paint mGrayPaint = new Paint();
+
+    private int mHighColor;
+    private int mLowColor;
+    private int mLabelColor;
+    private int mAmbientColor;
+    private boolean mLowBitAmbient;
+
+    private Bitmap mInteractiveAtlas;
+    private Bitmap mAmbientAtlas;
+    private int mCellWidth;
+    private int mCellHeight;
+    private int mCount;
+    private boolean mDirty = true;
+
+    private final Rect mSrcRect = new Rect();
+    private final RectF mDstRect = new RectF();
+
+    public ForecastAtlas(Resources resources) {
+        mResources = resources;
+        ColorMatrix colorMatrix = new ColorMatrix();
+        colorMatrix.setSaturation(0);
+        mGrayPaint.setColorFilter(new ColorMatrixColorFilter(colorMatrix));
+    }
+
+    public void setColors(int highColor, int lowColor, int labelColor, int ambientColor) {
+        mHighColor = highColor;
+        mLowColor = lowColor;
+        mLabelColor = labelColor;
+        mAmbientColor = ambientColor;
+        mDirty = true;
+    }
+
+    public void setTextSizes(float tempSize, float labelSize) {
+        mHighPaint.setTextSize(tempSize);
+        mLowPaint.setTextSize(tempSize);
+        mLabelPaint.setTextSize(labelSize);
+        mDirty = true;
+    }
+
+    public void setLowBitAmbient(boolean lowBitAmbient) {
+        if (mLowBitAmbient != lowBitAmbient) {
+            mLowBitAmbient = lowBitAmbient;
+            mDirty = true;
+        }
+    }
+
+    /**
+     * Marks the atlases as stale, they will be rebuilt from the store on the next draw.
+     */
+    public void invalidate() {
+        mDirty = true;
+    }
+
+    public int getCellWidth() {
+        return mCellWidth;
+    }
+
+    public int getCellHeight() {
+        return mCellHeight;
+    }
+
+    /**
+     * Draws the cell of the given day with its top left corner at (left, top).
+     */
+    public void draw(Canvas canvas, ForecastStore store, int day, boolean ambient,
+                     float left, float top) {
+        if (mDirty) {
+            build(store);
+        }
+        if (mCount == 0) {
+            return;
+        }
+        day = Math.max(0, Math.min(day, mCount - 1));
+        mSrcRect.set(0, day * mCellHeight, mCellWidth, (day + 1) * mCellHeight);
+        mDstRect.set(left, top, left + mCellWidth, top + mCellHeight);
+        canvas.drawBitmap(ambient ? mAmbientAtlas : mInteractiveAtlas, mSrcRect, mDstRect, null);
+    }
+
+    private void build(ForecastStore store) {
+        mDirty = false;
+        mCount = store.getCount();
+        recycle();
+        if (mCount == 0) {
+            return;
+        }
+
+        String[] highs = new String[mCount];
+        String[] lows = new String[mCount];
+        String[] labels = new String[mCount];
+        SimpleDateFormat dayFormat = new SimpleDateFormat("EEE d", Locale.getDefault());
+        Date date = new Date();
+
+        mHighPaint.setTypeface(BOLD_TYPEFACE);
+        mLowPaint.setTypeface(NORMAL_TYPEFACE);
+        mLabelPaint.setTypeface(NORMAL_TYPEFACE);
+
+        int iconWidth = 0;
+        int iconHeight = 0;
+        float textWidth = 0;
+        for (int i = 0; i < mCount; i++) {
+            highs[i] = formatTemperature(store.getHigh(i), store.isMetric());
+            lows[i] = formatTemperature(store.getLow(i), store.isMetric());
+            if (DateUtils.isToday(store.getDate(i))) {
+                labels[i] = mResources.getString(R.string.today);
+            } else {
+                date.setTime(store.getDate(i));
+                labels[i] = dayFormat.format(date);
+            }
+            Bitmap icon = getIconGlyph(store.getWeatherId(i));
+            if (icon != null) {
+                iconWidth = Math.max(iconWidth, icon.getWidth());
+                iconHeight = Math.max(iconHeight, icon.getHeight());
+            }
+            textWidth = Math.max(textWidth, mHighPaint.measureText(highs[i])
+                    + mLowPaint.measureText(lows[i]));
+            textWidth = Math.max(textWidth, mLabelPaint.measureText(labels[i]));
+        }
+
+        Paint.FontMetrics labelMetrics = mLabelPaint.getFontMetrics();
+        Paint.FontMetrics tempMetrics = mHighPaint.getFontMetrics();
+        float labelHeight = labelMetrics.descent - labelMetrics.ascent;
+        float tempHeight = tempMetrics.descent - tempMetrics.ascent;
+
+        mCellWidth = Math.max(1, iconWidth + (int) Math.ceil(textWidth));
+        mCellHeight = Math.max(1, Math.max(iconHeight, (int) Math.ceil(labelHeight + tempHeight)));
+
+        mInteractiveAtlas = Bitmap.createBitmap(mCellWidth, mCellHeight * mCount,
+                Bitmap.Config.ARGB_8888);
+        mAmbientAtlas = Bitmap.createBitmap(mCellWidth, mCellHeight * mCount,
+                Bitmap.Config.ARGB_8888);
+        Canvas interactive = new Canvas(mInteractiveAtlas);
+        Canvas ambient = new Canvas(mAmbientAtlas);
+
+        for (int i = 0; i < mCount; i++) {
+            float top = i * mCellHeight;
+            float labelBaseline = top - labelMetrics.ascent;
+            float tempBaseline = labelBaseline + labelMetrics.descent - tempMetrics.ascent;
+            Bitmap icon = getIconGlyph(store.getWeatherId(i));
+
+            // interactive cell
+            setPaintMode(false);
+            if (icon != null) {
+                interactive.drawBitmap(icon, 0, top + (mCellHeight - icon.getHeight()) / 2f, null);
+            }
+            drawText(interactive, labels[i], highs[i], lows[i], iconWidth, labelBaseline,
+                    tempBaseline);
+
+            // ambient cell: grayscale icon, single color text, no anti-aliasing on low-bit screens
+            setPaintMode(true);
+            if (icon != null) {
+                ambient.drawBitmap(icon, 0, top + (mCellHeight - icon.getHeight()) / 2f,
+                        mGrayPaint);
+            }
+            drawText(ambient, labels[i], highs[i], lows[i], iconWidth, labelBaseline,
+                    tempBaseline);
+        }
+    }
+
+    private void drawText(Canvas canvas, String label, String high, String low, float left,
+                          float labelBaseline, float tempBaseline) {
+        canvas.drawText(label, left, labelBaseline, mLabelPaint);
+        canvas.drawText(high, left, tempBaseline, mHighPaint);
+        canvas.drawText(low, left + mHighPaint.measureText(high), tempBaseline, mLowPaint);
+    }
+
+    private void setPaintMode(boolean ambient) {
+        boolean antiAlias = !(ambient && mLowBitAmbient);
+        mHighPaint.setAntiAlias(antiAlias);
+        mLowPaint.setAntiAlias(antiAlias);
+        mLabelPaint.setAntiAlias(antiAlias);
+        mHighPaint.setColor(ambient ? mAmbientColor : mHighColor);
+        mLowPaint.setColor(ambient ? mAmbientColor : mLowColor);
+        mLabelPaint.setColor(ambient ? mAmbientColor : mLabelColor);
+        mHighPaint.setTypeface(ambient ? NORMAL_TYPEFACE : BOLD_TYPEFACE);
+    }
+
+    private String formatTemperature(double temperature, boolean metric) {
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        return String.format("%3s", String.valueOf(Math.round(temperature))) + "°";
+    }
+
+    private Bitmap getIconGlyph(int weatherId) {
+        int iconId = Utilities.getIconResourceForWeatherCondition(weatherId);
+        if (iconId == -1) {
+            return null;
+        }
+        Bitmap icon = mIconGlyphs.get(iconId);
+        if (icon == null) {
+            icon = BitmapFactory.decodeResource(mResources, iconId);
+            mIconGlyphs.put(iconId, icon);
+        }
+        return icon;
+    }
+
+    private void recycle() {
+        if (mInteractiveAtlas != null) {
+            mInteractiveAtlas.recycle();
+            mInteractiveAtlas = null;
+        }
+        if (mAmbientAtlas != null) {
+            mAmbientAtlas.recycle();
+            mAmbientAtlas = null;
+        }
+    }
+
+    /**
+     * Releases the atlases and the decoded icons.
+     */
+    public void release() {
+        recycle();
+        for (int i = 0; i < mIconGlyphs.size(); i++) {
+            mIconGlyphs.valueAt(i).recycle();
+        }
+        mIconGlyphs.clear();
+        mDirty = true;
+    }
+}
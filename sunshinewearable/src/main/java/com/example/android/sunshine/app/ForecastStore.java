@@ -0,0 +1,104 @@
+package com.example.android.sunshine.app;
+
+import com.google.android.gms.wearable.DataMap;
+
+import java.util.ArrayList;
+
+/**
+ * Watch side copy of the forecast sent by the phone on /sunshine-weather.  The days are kept in
+ * primitive arrays ordered by date so drawing never has to touch the DataMap again.
+ */
+public class ForecastStore {
+    // Same keys the phone uses in WearableForecastPublisher
+    static final String KEY_WEATHER_ID = "weather_id";
+    static final String KEY_HIGH = "high";
+    static final String KEY_LOW = "low";
+    static final String KEY_FORECAST = "forecast";
+    static final String KEY_DATE = "date";
+    static final String KEY_SYNCED_AT = "synced_at";
+    static final String KEY_METRIC = "metric";
+
+    private static final int DEFAULT_WEATHER_ID = 800;
+    // The phone asks OpenWeatherMap for 14 days
+    private static final int MAX_DAYS = 14;
+
+    private final long[] mDates = new long[MAX_DAYS];
+    private final int[] mWeatherIds = new int[MAX_DAYS];
+    private final double[] mHighs = new double[MAX_DAYS];
+    private final double[] mLows = new double[MAX_DAYS];
+    private int mCount;
+    private long mSyncedAt;
+    // The phone always sends Celsius, this only changes how temperatures are shown
+    private boolean mMetric = true;
+
+    public ForecastStore() {
+        // Until the phone talks to us, show a clear day at 0 degrees
+        mDates[0] = System.currentTimeMillis();
+        mWeatherIds[0] = DEFAULT_WEATHER_ID;
+        mCount = 1;
+    }
+
+    /**
+     * Replaces the stored forecast with the content of the DataMap received from the phone.
+     * Older phones only send today's summary, which is stored as a single day.
+     */
+    public void update(DataMap dataMap) {
+        mSyncedAt = dataMap.getLong(KEY_SYNCED_AT);
+        ArrayList<DataMap> forecast = dataMap.getDataMapArrayList(KEY_FORECAST);
+        if (forecast != null && !forecast.isEmpty()) {
+            int count = Math.min(forecast.size(), MAX_DAYS);
+            for (int i = 0; i < count; i++) {
+                DataMap day = forecast.get(i);
+                mDates[i] = day.getLong(KEY_DATE);
+                mWeatherIds[i] = day.getInt(KEY_WEATHER_ID, DEFAULT_WEATHER_ID);
+                mHighs[i] = day.getDouble(KEY_HIGH);
+                mLows[i] = day.getDouble(KEY_LOW);
+            }
+            mCount = count;
+        } else {
+            mDates[0] = System.currentTimeMillis();
+            mWeatherIds[0] = dataMap.getInt(KEY_WEATHER_ID, DEFAULT_WEATHER_ID);
+            mHighs[0] = dataMap.getDouble(KEY_HIGH);
+            mLows[0] = dataMap.getDouble(KEY_LOW);
+            mCount = 1;
+        }
+    }
+
+    /**
+     * Applies the units chosen on the phone, received on /sunshine-units.
+     */
+    public void updateUnits(DataMap dataMap) {
+        mMetric = dataMap.getBoolean(KEY_METRIC, true);
+    }
+
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    /**
+     * Returns when the phone fetched the forecast, 0 if unknown.
+     */
+    public long getSyncedAt() {
+        return mSyncedAt;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public long getDate(int day) {
+        return mDates[day];
+    }
+
+    public int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    public double getHigh(int day) {
+        return mHighs[day];
+    }
+
+    public double getLow(int day) {
+        return mLows[day];
+    }
+}
@@ -21,12 +21,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
@@ -50,6 +46,8 @@ import com.google.android.gms.wearable.DataItem;
 import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.Wearable;
 import com.squirrel.app.R;
 
@@ -80,6 +78,21 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /**
+     * Message path used to ask the phone for fresh weather data.
+     */
+    private static final String PATH_REFRESH = "/sunshine-refresh";
+
+    /**
+     * Data fetched by the phone longer ago than this is refreshed when the face wakes up.
+     */
+    private static final long STALE_AFTER_MS = 60 * 60 * 1000;
+
+    /**
+     * Minimum time between two refresh requests sent to the phone.
+     */
+    private static final long MIN_REFRESH_INTERVAL_MS = 60 * 1000;
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
@@ -112,8 +125,6 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         final Handler mUpdateTimeHandler = new EngineHandler(this);
         boolean mRegisteredTimeZoneReceiver = false;
 
-        private final int DEFAULT_WEATHER_ICON = 800;
-
         boolean mShouldDrawColon = true;
 
         //colors of the watchface
@@ -126,19 +137,16 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
         Paint mBackgroundPaint;
         Paint mTimePaint;
-        Paint mWeatherIconPaint;
         Paint mDatePaint;
         Paint mLinePaint;
-        Paint mHighTempPaint;
-        Paint mLowTempPaint;
 
-        //weather icon
-        private Bitmap mWeatherIconBitmap;
-        private Bitmap mWeatherIconNoColorBitmap;
-
-        //low anf high temperature, shown on the screen
-        private String mHighTemp;
-        private String mLowTemp;
+        //forecast received from the phone and its pre-rendered cells
+        private final ForecastStore mForecastStore = new ForecastStore();
+        private ForecastAtlas mForecastAtlas;
+        //day shown on the face, tapping the weather cycles through the forecast
+        private int mSelectedDay;
+        private float mWeatherTop;
+        private long mLastRefreshRequest;
 
         Time mTime;
         Date mDate;
@@ -198,27 +206,19 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             mTimePaint = new Paint();
             mTimePaint = createTextPaint(mTextInteractive);
 
-            mWeatherIconPaint = new Paint();
-
             mDatePaint = new Paint();
             mDatePaint.setColor(mSecondaryTextInteractive);
 
             mLinePaint = new Paint();
             mLinePaint.setColor(mLineInteractive);
 
-            mHighTempPaint = new Paint();
-            mHighTempPaint.setColor(mTextInteractive);
-            mHighTempPaint.setTypeface(BOLD_TYPEFACE);
-
-            mLowTempPaint = new Paint();
-            mLowTempPaint.setColor(mSecondaryTextInteractive);
+            mForecastAtlas = new ForecastAtlas(resources);
+            mForecastAtlas.setColors(mTextInteractive, mSecondaryTextInteractive,
+                    mSecondaryTextInteractive, mTextAmbient);
 
             mTime = new Time();
             mDate = new Date();
 
-            //set the initial state to 0 temperature and clean weather
-            setWeatherInfo(0,0,DEFAULT_WEATHER_ICON);
-
             mGoogleApiClient = new GoogleApiClient.Builder(SunshineWatchFace.this)
                     .addApi(Wearable.API)
                     .addConnectionCallbacks(this)
@@ -227,16 +227,6 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
         }
 
-        private void setWeatherInfo(int highTemp, int lowTemp, int weatherId){
-            mHighTemp = String.format("%3s",String.valueOf(highTemp)) + "°";
-            mLowTemp = String.format("%3s",String.valueOf(lowTemp)) + "°";
-
-            //set the icon
-            int iconId = Utilities.getIconResourceForWeatherCondition(weatherId);
-            mWeatherIconBitmap = BitmapFactory.decodeResource(getResources(), iconId);
-            makeIconGray();
-        }
-
 
         //onDataChangedListener will get notified every time there is a change in the data layer
         private final DataApi.DataListener onDataChangedListener = new DataApi.DataListener() {
@@ -263,33 +253,56 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                     getWeatherData(item);
                 }
                 dataItems.release();
+                // we just woke up, ask the phone for new data if what we have is old
+                if (System.currentTimeMillis() - mForecastStore.getSyncedAt() > STALE_AFTER_MS) {
+                    requestRefresh();
+                }
             }
         };
 
         private void getWeatherData(DataItem item){
             if ("/sunshine-weather".equals(item.getUri().getPath())){
                 DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
-                int low = 0;
-                int high = 0;
-                int weatherId = DEFAULT_WEATHER_ICON;
-                if (dataMap.containsKey("weather_id")) {
-                    weatherId = dataMap.getInt("weather_id");
-                    Log.d(LOG_TAG,"Received weather id");
+                mForecastStore.update(dataMap);
+                Log.d(LOG_TAG, "Received forecast for " + mForecastStore.getCount() + " days");
+                if (mSelectedDay >= mForecastStore.getCount()) {
+                    mSelectedDay = 0;
                 }
-                if (dataMap.containsKey("low")) {
-                    low = (int) Math.round(dataMap.getDouble("low"));
-                    Log.d(LOG_TAG,"Received low");
-
-                }
-                if (dataMap.containsKey("high")) {
-                    high = (int) Math.round(dataMap.getDouble("high"));
-                    Log.d(LOG_TAG,"Received high");
-                }
-                setWeatherInfo(high, low, weatherId);
+                mForecastAtlas.invalidate();
+                invalidate();
+            } else if ("/sunshine-units".equals(item.getUri().getPath())) {
+                // only the formatting changes, the cells are drawn again from the stored data
+                mForecastStore.updateUnits(DataMapItem.fromDataItem(item).getDataMap());
+                mForecastAtlas.invalidate();
+                invalidate();
             }
         }
 
 
+        /**
+         * Asks the phone for fresh weather data.  The phone answers by updating the data item,
+         * which reaches us through onDataChangedListener.
+         */
+        private void requestRefresh() {
+            long now = System.currentTimeMillis();
+            if (!mGoogleApiClient.isConnected()
+                    || now - mLastRefreshRequest < MIN_REFRESH_INTERVAL_MS) {
+                return;
+            }
+            mLastRefreshRequest = now;
+            Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).setResultCallback(
+                    new ResultCallback<NodeApi.GetConnectedNodesResult>() {
+                        @Override
+                        public void onResult(NodeApi.GetConnectedNodesResult result) {
+                            for (Node node : result.getNodes()) {
+                                Log.d(LOG_TAG, "Requesting refresh from " + node.getDisplayName());
+                                Wearable.MessageApi.sendMessage(mGoogleApiClient, node.getId(),
+                                        PATH_REFRESH, null);
+                            }
+                        }
+                    });
+        }
+
         @Override
         public void onConnected(Bundle bundle) {
             Log.d(LOG_TAG, "connected GoogleAPI");
@@ -319,6 +332,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
             releaseGoogleApiClient();
+            mForecastAtlas.release();
             super.onDestroy();
         }
 
@@ -400,9 +414,8 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                     ? R.dimen.digital_temp_size_round : R.dimen.digital_temp_size);
 
             mTimePaint.setTextSize(timeSize);
-            mHighTempPaint.setTextSize(tempSize);
-            mLowTempPaint.setTextSize(tempSize);
             mDatePaint.setTextSize(dateSize);
+            mForecastAtlas.setTextSizes(tempSize, dateSize);
         }
 
         @Override
@@ -412,8 +425,8 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
 
             //if BurnInProtection - should remove the bold text
-            mHighTempPaint.setTypeface(NORMAL_TYPEFACE);
             mTimePaint.setTypeface(NORMAL_TYPEFACE);
+            mForecastAtlas.setLowBitAmbient(mLowBitAmbient);
 
         }
 
@@ -430,31 +443,23 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                 mAmbient = inAmbientMode;
                 if (mLowBitAmbient) {
                     mDatePaint.setAntiAlias(!inAmbientMode);
-                    mHighTempPaint.setAntiAlias(!inAmbientMode);
-                    mLowTempPaint.setAntiAlias(!inAmbientMode);
                     mTimePaint.setAntiAlias(!inAmbientMode);
                 }
                 if(mAmbient){
                     mBackgroundPaint.setColor(mBackgroundAmbient);
                     mTimePaint.setColor(mTextAmbient);
-                    mHighTempPaint.setColor(mTextAmbient);
-                    mLowTempPaint.setColor(mTextAmbient);
                     mDatePaint.setColor(mTextAmbient);
                     mLinePaint.setColor(Color.TRANSPARENT);
                     mTimePaint.setTypeface(NORMAL_TYPEFACE);
-                    mHighTempPaint.setTypeface(NORMAL_TYPEFACE);
-                    mHighTempPaint.setTypeface(NORMAL_TYPEFACE);
                     mDatePaint.setTypeface(NORMAL_TYPEFACE);
+                    //back to today when the watch goes to sleep
+                    mSelectedDay = 0;
                 }else{
                     mBackgroundPaint.setColor(mBackgroundInteractive);
                     mTimePaint.setColor(mTextInteractive);
-                    mHighTempPaint.setColor(mTextInteractive);
-                    mLowTempPaint.setColor(mSecondaryTextInteractive);
                     mLinePaint.setColor(mSecondaryTextInteractive);
                     mDatePaint.setColor(mSecondaryTextInteractive);
 //                    mTimePaint.setTypeface(BOLD_TYPEFACE);
-                    mHighTempPaint.setTypeface(BOLD_TYPEFACE);
-
                 }
                 invalidate();
             }
@@ -465,12 +470,10 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         }
 
         /**
-         * Captures tap event (and tap type) and toggles the background color if the user finishes
-         * a tap.
+         * Captures tap event (and tap type). A tap on the weather shows the next forecast day.
          */
         @Override
         public void onTapCommand(int tapType, int x, int y, long eventTime) {
-            Resources resources = SunshineWatchFace.this.getResources();
             switch (tapType) {
                 case TAP_TYPE_TOUCH:
                     // The user has started touching the screen.
@@ -480,9 +483,12 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                     break;
                 case TAP_TYPE_TAP:
                     // The user has completed the tap gesture.
-//                    mTapCount++;
-//                    mBackgroundPaint.setColor(resources.getColor(mTapCount % 2 == 0 ?
-//                            R.color.background : R.color.background2));
+                    if (y >= mWeatherTop && y <= mWeatherTop + mForecastAtlas.getCellHeight()) {
+                        mSelectedDay = (mSelectedDay + 1) % mForecastStore.getCount();
+                    } else {
+                        // anywhere else on the face asks the phone for new data
+                        requestRefresh();
+                    }
                     break;
             }
             invalidate();
@@ -534,20 +540,9 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
             y+= dateTextHeight;
 
-            if(!mAmbient){
-                canvas.drawBitmap(mWeatherIconBitmap, mXOffset, y, mWeatherIconPaint);
-            } else {
-                canvas.drawBitmap(mWeatherIconNoColorBitmap, mXOffset, y, mWeatherIconPaint);
-            }
-            y+= dateTextHeight * 2;
-            canvas.drawText(mHighTemp,
-                    mXOffset + mWeatherIconBitmap.getWidth(),
-                    y,
-                    mHighTempPaint);
-            canvas.drawText(mLowTemp,
-                    mXOffset + mWeatherIconBitmap.getWidth() + gettextWidth(mHighTemp, mHighTempPaint),
-                    y,
-                    mLowTempPaint);
+            //the icon, day and temperatures of the selected day are a single blit from the atlas
+            mWeatherTop = y;
+            mForecastAtlas.draw(canvas, mForecastStore, mSelectedDay, mAmbient, mXOffset, y);
 
         }
 
@@ -601,19 +596,5 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                 mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
             }
         }
-
-        private void makeIconGray(){
-            mWeatherIconNoColorBitmap = Bitmap.createBitmap(
-                    mWeatherIconBitmap.getWidth(),
-                    mWeatherIconBitmap.getHeight(),
-                    Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas( mWeatherIconNoColorBitmap);
-            Paint grayPaint = new Paint();
-            ColorMatrix colorMatrix = new ColorMatrix();
-            colorMatrix.setSaturation(0);
-            ColorMatrixColorFilter filter = new ColorMatrixColorFilter(colorMatrix);
-            grayPaint.setColorFilter(filter);
-            canvas.drawBitmap(mWeatherIconBitmap, 0, 0, grayPaint);
-        }
     }
 }